@@ -0,0 +1,45 @@
+package config;
+
+import com.typesafe.config.Config;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.BiFunction;
+import lombok.Getter;
+
+/** Value type of a runtime config key and how to read it from a resolved Config. */
+@Getter
+public class ConfDataType<T> {
+  public static final ConfDataType<Boolean> BooleanType =
+      new ConfDataType<>("Boolean", Boolean.class, Config::getBoolean);
+  public static final ConfDataType<Integer> IntegerType =
+      new ConfDataType<>("Integer", Integer.class, Config::getInt);
+  public static final ConfDataType<Long> LongType =
+      new ConfDataType<>("Long", Long.class, Config::getLong);
+  public static final ConfDataType<Long> BytesType =
+      new ConfDataType<>("Bytes", Long.class, Config::getBytes);
+  public static final ConfDataType<Duration> DurationType =
+      new ConfDataType<>("Duration", Duration.class, Config::getDuration);
+  public static final ConfDataType<String> StringType =
+      new ConfDataType<>("String", String.class, Config::getString);
+
+  @SuppressWarnings("unchecked")
+  public static final ConfDataType<List<String>> StringListType =
+      new ConfDataType<>(
+          "String List",
+          (Class<List<String>>) (Class<?>) List.class,
+          (config, path) -> List.copyOf(config.getStringList(path)));
+
+  private final String name;
+  private final Class<T> type;
+  private final BiFunction<Config, String, T> getter;
+
+  private ConfDataType(String name, Class<T> type, BiFunction<Config, String, T> getter) {
+    this.name = name;
+    this.type = type;
+    this.getter = getter;
+  }
+
+  public T getValue(Config config, String path) {
+    return getter.apply(config, path);
+  }
+}
@@ -0,0 +1,48 @@
+package config;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.Getter;
+
+/**
+ * Metadata of a runtime configurable key. Instances are declared as static fields of a
+ * RuntimeConfigKeysModule subclass for the scope of the key.
+ */
+@Getter
+public class ConfKeyInfo<T> {
+
+  public enum ScopeType {
+    GLOBAL,
+    CUSTOMER,
+    UNIVERSE,
+    PROVIDER
+  }
+
+  private static final AtomicInteger nextSlot = new AtomicInteger();
+
+  final String key;
+  final ScopeType scope;
+  final String displayName;
+  final String helpTxt;
+  final ConfDataType<T> dataType;
+
+  // Dense index of this key, used by RuntimeConfGetter to hold resolved values in arrays.
+  final int slot;
+
+  public ConfKeyInfo(
+      String key,
+      ScopeType scope,
+      String displayName,
+      String helpTxt,
+      ConfDataType<T> dataType) {
+    this.key = key;
+    this.scope = scope;
+    this.displayName = displayName;
+    this.helpTxt = helpTxt;
+    this.dataType = dataType;
+    this.slot = nextSlot.getAndIncrement();
+  }
+
+  static int slotCount() {
+    return nextSlot.get();
+  }
+}
@@ -0,0 +1,22 @@
+package config;
+
+import config.ConfKeyInfo.ScopeType;
+
+public class CustomerConfKeys extends RuntimeConfigKeysModule {
+
+  public static final ConfKeyInfo<Integer> taskSchedulerWeight =
+      new ConfKeyInfo<>(
+          "yb.task.scheduler.customer_weight",
+          ScopeType.CUSTOMER,
+          "Task scheduler weight",
+          "Share of the task executor given to this customer relative to the other customers",
+          ConfDataType.IntegerType);
+  public static final ConfKeyInfo<Integer> maxConcurrentTasksPerCustomer =
+      new ConfKeyInfo<>(
+          "yb.task.scheduler.max_concurrent_tasks_per_customer",
+          ScopeType.CUSTOMER,
+          "Max concurrent tasks per customer",
+          "Maximum number of tasks of this customer running at a time, excluding priority tasks. 0"
+              + " means no limit",
+          ConfDataType.IntegerType);
+}
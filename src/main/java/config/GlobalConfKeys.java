@@ -1,5 +1,112 @@
 package config;
 
-public class GlobalConfKeys {
-    public static Object useOauth;
+import config.ConfKeyInfo.ScopeType;
+import java.time.Duration;
+import java.util.List;
+
+public class GlobalConfKeys extends RuntimeConfigKeysModule {
+
+  public static final ConfKeyInfo<Boolean> useOauth =
+      new ConfKeyInfo<>(
+          "yb.security.use_oauth",
+          ScopeType.GLOBAL,
+          "Use OAUTH",
+          "Hidden because this key has dedicated UI",
+          ConfDataType.BooleanType);
+  public static final ConfKeyInfo<Boolean> useNewRbacAuthz =
+      new ConfKeyInfo<>(
+          "yb.rbac.use_new_authz",
+          ScopeType.GLOBAL,
+          "New RBAC Authz feature",
+          "New RBAC Authz feature with custom role creation",
+          ConfDataType.BooleanType);
+  public static final ConfKeyInfo<Boolean> ybaApiStrictMode =
+      new ConfKeyInfo<>(
+          "yb.runtime_conf_ui.strict_mode",
+          ScopeType.GLOBAL,
+          "Enable YBA API strict mode",
+          "Reject API requests that use deprecated fields",
+          ConfDataType.BooleanType);
+  public static final ConfKeyInfo<Boolean> ybaApiSafeMode =
+      new ConfKeyInfo<>(
+          "yb.runtime_conf_ui.safe_mode",
+          ScopeType.GLOBAL,
+          "Enable YBA API safe mode",
+          "Reject API requests that perform unsafe operations",
+          ConfDataType.BooleanType);
+  public static final ConfKeyInfo<Boolean> blockOperatorApiResources =
+      new ConfKeyInfo<>(
+          "yb.kubernetes.operator.block_api_operator_owned_resources",
+          ScopeType.GLOBAL,
+          "Block Operator API Resources",
+          "Block API modification of resources owned by the kubernetes operator",
+          ConfDataType.BooleanType);
+  public static final ConfKeyInfo<Boolean> useVirtualThreadsForSubTasks =
+      new ConfKeyInfo<>(
+          "yb.task.subtask_virtual_threads",
+          ScopeType.GLOBAL,
+          "Run subtasks on virtual threads",
+          "Run subtask groups on virtual threads instead of the task executor pool, when the JVM"
+              + " supports them",
+          ConfDataType.BooleanType);
+  public static final ConfKeyInfo<Integer> maxConcurrentTasks =
+      new ConfKeyInfo<>(
+          "yb.task.scheduler.max_concurrent_tasks",
+          ScopeType.GLOBAL,
+          "Max concurrent tasks",
+          "Maximum number of customer tasks the scheduler runs at a time, excluding priority tasks",
+          ConfDataType.IntegerType);
+  public static final ConfKeyInfo<List<String>> taskTypeConcurrencyLimits =
+      new ConfKeyInfo<>(
+          "yb.task.scheduler.task_type_limits",
+          ScopeType.GLOBAL,
+          "Task type concurrency limits",
+          "Maximum number of running tasks per task type as TaskType=limit entries",
+          ConfDataType.StringListType);
+  public static final ConfKeyInfo<List<String>> taskTypeWeights =
+      new ConfKeyInfo<>(
+          "yb.task.scheduler.task_type_weights",
+          ScopeType.GLOBAL,
+          "Task type weights",
+          "Scheduling weight of task types within a customer as TaskType=weight entries. Task types"
+              + " not listed have weight 1",
+          ConfDataType.StringListType);
+  public static final ConfKeyInfo<Duration> taskHistoryRetention =
+      new ConfKeyInfo<>(
+          "yb.task.history.retention",
+          ScopeType.GLOBAL,
+          "Task history retention",
+          "Completed customer tasks and their subtasks are deleted a whole month at a time once the"
+              + " month is older than this",
+          ConfDataType.DurationType);
+  public static final ConfKeyInfo<Integer> alertNotificationParallelism =
+      new ConfKeyInfo<>(
+          "yb.alert.notification.parallelism",
+          ScopeType.GLOBAL,
+          "Alert notification parallelism",
+          "Maximum number of alert channels sending notifications at a time",
+          ConfDataType.IntegerType);
+  public static final ConfKeyInfo<Integer> alertNotificationChannelRate =
+      new ConfKeyInfo<>(
+          "yb.alert.notification.channel_rate_per_min",
+          ScopeType.GLOBAL,
+          "Alert channel rate limit",
+          "Maximum number of notifications sent to an alert channel per minute. A digest counts as"
+              + " one notification. Notifications over the limit are sent later",
+          ConfDataType.IntegerType);
+  public static final ConfKeyInfo<Integer> alertNotificationMaxDigestSize =
+      new ConfKeyInfo<>(
+          "yb.alert.notification.max_digest_size",
+          ScopeType.GLOBAL,
+          "Alert notification digest size",
+          "Maximum number of alerts in a digest notification, for the channel types sending"
+              + " digests",
+          ConfDataType.IntegerType);
+  public static final ConfKeyInfo<Duration> alertNotificationMaxBackoff =
+      new ConfKeyInfo<>(
+          "yb.alert.notification.max_backoff",
+          ScopeType.GLOBAL,
+          "Alert channel max backoff",
+          "Maximum delay before retrying an alert channel after consecutive send failures",
+          ConfDataType.DurationType);
 }
@@ -1,4 +1,128 @@
 package config;
 
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import config.ConfKeyInfo.ScopeType;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import lombok.extern.slf4j.Slf4j;
+import models.Customer;
+import models.Provider;
+import models.Universe;
+
+/**
+ * Typed access to runtime config keys declared as ConfKeyInfo. Global keys are resolved once and
+ * held in an array indexed by the key slot, so a read on the hot path is a single volatile load
+ * with no config parsing, path hashing or allocation. Booleans are held as the canonical
+ * Boolean.TRUE/FALSE instances. A slot is cleared when its key changes, locally or on another
+ * instance, and is resolved again on the next read. Scoped keys are read through the
+ * RuntimeConfigCache.
+ */
+@Slf4j
+@Singleton
 public class RuntimeConfGetter {
+
+  private final RuntimeConfigFactory runtimeConfigFactory;
+
+  private final RuntimeConfigCache runtimeConfigCache;
+
+  // Resolved global values by ConfKeyInfo slot. A null element is not resolved yet.
+  private final AtomicReferenceArray<Object> globalValues;
+
+  // Bumped by every clear of a slot, so that a value resolved across a clear is not kept.
+  private final AtomicLongArray globalGenerations;
+
+  @Inject
+  public RuntimeConfGetter(
+      RuntimeConfigFactory runtimeConfigFactory,
+      RuntimeConfigCache runtimeConfigCache,
+      RuntimeConfigChangeNotifier runtimeConfigChangeNotifier,
+      RuntimeConfigChangeFeed runtimeConfigChangeFeed,
+      Map<String, ConfKeyInfo<?>> keyMetadata) {
+    this.runtimeConfigFactory = runtimeConfigFactory;
+    this.runtimeConfigCache = runtimeConfigCache;
+    this.globalValues = new AtomicReferenceArray<>(ConfKeyInfo.slotCount());
+    this.globalGenerations = new AtomicLongArray(globalValues.length());
+    for (ConfKeyInfo<?> keyInfo : keyMetadata.values()) {
+      if (keyInfo.scope != ScopeType.GLOBAL) {
+        continue;
+      }
+      runtimeConfigChangeNotifier.addListener(
+          new RuntimeConfigChangeListener() {
+            public String getKeyPath() {
+              return keyInfo.key;
+            }
+
+            public void processGlobal() {
+              clearGlobal(keyInfo);
+            }
+          });
+    }
+    runtimeConfigChangeFeed.subscribe(
+        new RuntimeConfigChangeFeed.Subscriber() {
+          public void onChange(UUID scopeUUID, String keyPath) {
+            ConfKeyInfo<?> keyInfo = keyMetadata.get(keyPath);
+            if (keyInfo != null && RuntimeConfigFactory.GLOBAL_SCOPE_UUID.equals(scopeUUID)) {
+              clearGlobal(keyInfo);
+            }
+          }
+
+          public void onResync() {
+            for (int i = 0; i < globalValues.length(); i++) {
+              clearSlot(i);
+            }
+          }
+        });
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> T getGlobalConf(ConfKeyInfo<T> keyInfo) {
+    int slot = keyInfo.slot;
+    if (slot >= globalValues.length()) {
+      // Declared after this getter was created, so it has no slot.
+      return keyInfo.dataType.getValue(runtimeConfigFactory.globalRuntimeConf(), keyInfo.key);
+    }
+    Object value = globalValues.get(slot);
+    if (value == null) {
+      long generation = globalGenerations.get(slot);
+      value = keyInfo.dataType.getValue(runtimeConfigFactory.globalRuntimeConf(), keyInfo.key);
+      // Stored first and then checked, as a clear bumps the generation before it empties the slot.
+      // A clear in between may have missed the value, so it is taken back out.
+      if (globalValues.compareAndSet(slot, null, value)
+          && globalGenerations.get(slot) != generation) {
+        globalValues.compareAndSet(slot, value, null);
+      }
+    }
+    return (T) value;
+  }
+
+  public <T> T getConfForScope(Customer customer, ConfKeyInfo<T> keyInfo) {
+    return runtimeConfigCache.forCustomer(customer).get(keyInfo);
+  }
+
+  public <T> T getConfForScope(Universe universe, ConfKeyInfo<T> keyInfo) {
+    return runtimeConfigCache.forUniverse(universe).get(keyInfo);
+  }
+
+  public <T> T getConfForScope(Provider provider, ConfKeyInfo<T> keyInfo) {
+    return runtimeConfigCache.forProvider(provider).get(keyInfo);
+  }
+
+  public <T> T getStaticConf(ConfKeyInfo<T> keyInfo) {
+    return keyInfo.dataType.getValue(runtimeConfigFactory.staticApplicationConf(), keyInfo.key);
+  }
+
+  private void clearGlobal(ConfKeyInfo<?> keyInfo) {
+    if (keyInfo.slot < globalValues.length()) {
+      log.debug("Clearing resolved value of {}", keyInfo.key);
+      clearSlot(keyInfo.slot);
+    }
+  }
+
+  private void clearSlot(int slot) {
+    globalGenerations.incrementAndGet(slot);
+    globalValues.set(slot, null);
+  }
 }
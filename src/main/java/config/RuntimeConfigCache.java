@@ -2,8 +2,20 @@ package config;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.typesafe.config.Config;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
-import lombok.extern.slf4j.Slf4j;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import models.Customer;
+import models.Provider;
+import models.Universe;
 import play.cache.NamedCache;
 import play.cache.SyncCacheApi;
 
@@ -12,64 +24,204 @@ import play.cache.SyncCacheApi;
  * RuntimeConfigFactory. This will fetch the config state from the YBA DB. This class provides a
  * cache for performance critical paths that want to avoid a DB read and instead use an in-memory
  * cached value. For example, when a runtime feature flag needs to be consulted for every API call.
+ *
+ * <p>Values are cached per scope UUID and key path for the global, customer, universe and provider
+ * scopes. A change listener is registered with the RuntimeConfigChangeNotifier the first time a key
+ * path is cached, and the cached values for that path are dropped when it changes in the DB.
+ * Changes made by other YBA instances arrive through the RuntimeConfigChangeFeed.
  */
 @Singleton
 public class RuntimeConfigCache {
   private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RuntimeConfigCache.class);
   // This class utilizes the caffeine cache under the hoods
-  @Inject
-  @NamedCache("runtimeConfigsCache")
-  private SyncCacheApi cache;
-
-  @Inject private RuntimeConfigFactory runtimeConfigFactory;
-  private RuntimeConfigChangeNotifier runtimeConfigChangeNotifier;
-  // Add any key that needs to be cached below. Other keys will not be cached.
-  private Set<String> cachedGlobalKeys =
-      Set.of();
-
-            // private Set<String> cachedGlobalKeys =
-  //     Set.of(
-  //         GlobalConfKeys.useNewRbacAuthz.getKey(),
-  //         GlobalConfKeys.ybaApiStrictMode.getKey(),
-  //         GlobalConfKeys.ybaApiSafeMode.getKey(),
-  //         GlobalConfKeys.blockOperatorApiResources.getKey());
+  private final SyncCacheApi cache;
+
+  private final RuntimeConfigFactory runtimeConfigFactory;
+  private final RuntimeConfigChangeNotifier runtimeConfigChangeNotifier;
+
+  // Cached state of a key path.
+  private static class PathEntry {
+    // Cache keys currently populated for the path. Used to invalidate all the scopes and value
+    // types of the path when it changes.
+    private final Set<String> cacheKeys = ConcurrentHashMap.newKeySet();
+    // Bumped by every invalidation of the path, so that a value loaded across an invalidation is
+    // not left in the cache.
+    private final AtomicLong generation = new AtomicLong();
+  }
 
+  private final Map<String, PathEntry> pathEntries = new ConcurrentHashMap<>();
+
+  // All the dependencies are set before the subscription, as the feed may call it right away from
+  // its listener thread.
   @Inject
-  public RuntimeConfigCache(RuntimeConfigChangeNotifier runtimeConfigChangeNotifier) {
+  public RuntimeConfigCache(
+      @NamedCache("runtimeConfigsCache") SyncCacheApi cache,
+      RuntimeConfigFactory runtimeConfigFactory,
+      RuntimeConfigChangeNotifier runtimeConfigChangeNotifier,
+      RuntimeConfigChangeFeed runtimeConfigChangeFeed) {
+    this.cache = cache;
+    this.runtimeConfigFactory = runtimeConfigFactory;
     this.runtimeConfigChangeNotifier = runtimeConfigChangeNotifier;
-    initializeChangeListener();
+    runtimeConfigChangeFeed.subscribe(
+        new RuntimeConfigChangeFeed.Subscriber() {
+          public void onChange(UUID scopeUUID, String keyPath) {
+            // The kind of the remote scope is not resolved, so drop every scope of the key.
+            invalidate(keyPath, null);
+          }
+
+          public void onResync() {
+            invalidateAll();
+          }
+        });
   }
 
-  // Add a listener to clear the cache whenever the key is changed in the DB.
-  private void initializeChangeListener() {
-    for (String key : cachedGlobalKeys) {
-      runtimeConfigChangeNotifier.addListener(
-          new RuntimeConfigChangeListener() {
-            public String getKeyPath() {
-              return key;
-            }
-
-            public void processGlobal() {
-              log.info("Removed {} from cache", key);
-              cache.remove(key);
-            }
-          });
-    }
+  public ScopedConfig forGlobal() {
+    return new ScopedConfig(
+        RuntimeConfigFactory.GLOBAL_SCOPE_UUID, () -> runtimeConfigFactory.globalRuntimeConf());
+  }
+
+  public ScopedConfig forCustomer(Customer customer) {
+    return new ScopedConfig(customer.getUuid(), () -> runtimeConfigFactory.forCustomer(customer));
+  }
+
+  public ScopedConfig forUniverse(Universe universe) {
+    return new ScopedConfig(
+        universe.getUniverseUUID(), () -> runtimeConfigFactory.forUniverse(universe));
+  }
+
+  public ScopedConfig forProvider(Provider provider) {
+    return new ScopedConfig(provider.getUuid(), () -> runtimeConfigFactory.forProvider(provider));
   }
 
   // Get preferably from the cache. If not present, then fetch from the DB.
   public boolean getBoolean(String key) {
-    if (!cachedGlobalKeys.contains(key)) {
-      throw new RuntimeException(key + " is not cached with RuntimeConfigCache");
+    return forGlobal().getBoolean(key);
+  }
+
+  /** Typed getters over the cached values of a single scope. */
+  public class ScopedConfig {
+    private final UUID scopeUUID;
+    private final Supplier<Config> configSupplier;
+
+    private ScopedConfig(UUID scopeUUID, Supplier<Config> configSupplier) {
+      this.scopeUUID = scopeUUID;
+      this.configSupplier = configSupplier;
+    }
+
+    public boolean getBoolean(String key) {
+      return get(scopeUUID, configSupplier, "boolean", key, Config::getBoolean);
+    }
+
+    public int getInt(String key) {
+      return get(scopeUUID, configSupplier, "int", key, Config::getInt);
+    }
+
+    public long getLong(String key) {
+      return get(scopeUUID, configSupplier, "long", key, Config::getLong);
+    }
+
+    public long getBytes(String key) {
+      return get(scopeUUID, configSupplier, "bytes", key, Config::getBytes);
     }
-    return cache.getOrElseUpdate(
-        key,
-        () -> {
-          log.info("Fetching {} from DB", key);
-          return runtimeConfigFactory.globalRuntimeConf().getBoolean(key);
+
+    public Duration getDuration(String key) {
+      return get(scopeUUID, configSupplier, "duration", key, Config::getDuration);
+    }
+
+    public String getString(String key) {
+      return get(scopeUUID, configSupplier, "string", key, Config::getString);
+    }
+
+    public List<String> getStringList(String key) {
+      return get(
+          scopeUUID, configSupplier, "list", key, (c, k) -> List.copyOf(c.getStringList(k)));
+    }
+
+    public <T> T get(ConfKeyInfo<T> keyInfo) {
+      ConfDataType<T> dataType = keyInfo.getDataType();
+      return get(
+          scopeUUID, configSupplier, dataType.getName(), keyInfo.getKey(), dataType::getValue);
+    }
+  }
+
+  private <T> T get(
+      UUID scopeUUID,
+      Supplier<Config> configSupplier,
+      String type,
+      String key,
+      BiFunction<Config, String, T> getter) {
+    String cacheKey = cacheKey(scopeUUID, type, key);
+    PathEntry pathEntry = pathEntries.computeIfAbsent(key, this::registerChangeListener);
+    Optional<T> cached = cache.get(cacheKey);
+    if (cached.isPresent()) {
+      return cached.get();
+    }
+    long generation = pathEntry.generation.get();
+    log.debug("Fetching {} for scope {} from DB", key, scopeUUID);
+    T value = getter.apply(configSupplier.get(), key);
+    // Tracked before it is cached, so that an invalidation from now on removes it.
+    pathEntry.cacheKeys.add(cacheKey);
+    cache.set(cacheKey, value);
+    if (pathEntry.generation.get() != generation) {
+      // Invalidated while loading, the value may predate the change.
+      cache.remove(cacheKey);
+    }
+    return value;
+  }
+
+  private static String cacheKey(UUID scopeUUID, String type, String key) {
+    return scopeUUID + ":" + type + ":" + key;
+  }
+
+  // Add a listener to clear the cache whenever the key is changed in the DB. A change in the
+  // global or customer scope is inherited by the narrower scopes, so all the cached values of the
+  // key are dropped. A universe or provider change only affects that scope.
+  private PathEntry registerChangeListener(String key) {
+    runtimeConfigChangeNotifier.addListener(
+        new RuntimeConfigChangeListener() {
+          public String getKeyPath() {
+            return key;
+          }
+
+          public void processGlobal() {
+            invalidate(key, null);
+          }
+
+          public void processCustomer(Customer customer) {
+            invalidate(key, null);
+          }
+
+          public void processUniverse(Universe universe) {
+            invalidate(key, universe.getUniverseUUID());
+          }
+
+          public void processProvider(Provider provider) {
+            invalidate(key, provider.getUuid());
+          }
         });
+    return new PathEntry();
   }
 
-  // Add more getters for other types here as needed
+  private void invalidate(String key, UUID scopeUUID) {
+    PathEntry pathEntry = pathEntries.get(key);
+    if (pathEntry == null) {
+      return;
+    }
+    // Bumped before the keys are removed, see get().
+    pathEntry.generation.incrementAndGet();
+    String scopePrefix = scopeUUID == null ? null : scopeUUID + ":";
+    pathEntry.cacheKeys.removeIf(
+        cacheKey -> {
+          if (scopePrefix != null && !cacheKey.startsWith(scopePrefix)) {
+            return false;
+          }
+          cache.remove(cacheKey);
+          return true;
+        });
+    log.info("Removed {} from cache for scope {}", key, scopeUUID == null ? "all" : scopeUUID);
+  }
 
+  private void invalidateAll() {
+    pathEntries.keySet().forEach(key -> invalidate(key, null));
+  }
 }
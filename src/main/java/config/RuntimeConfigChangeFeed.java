@@ -0,0 +1,203 @@
+package config;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.typesafe.config.Config;
+import io.ebean.DB;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import play.inject.ApplicationLifecycle;
+
+/**
+ * Change feed for runtime config entries shared by all the YBA instances using the same DB. A
+ * change is published with a Postgres NOTIFY on {@link #CHANNEL} and every instance LISTENs on a
+ * dedicated connection, so in-memory state like the RuntimeConfigCache can be invalidated as soon
+ * as another instance commits a change instead of polling the DB on every read.
+ *
+ * <p>Notifications sent while the listening connection is down are lost, so subscribers are asked
+ * to resync every time the connection is (re)established. {@link #resync()} can also be called
+ * directly when the DB contents are replaced, e.g. after an HA follower restores a backup.
+ *
+ * <p>The listener thread and its connection are closed when the application stops.
+ */
+@Slf4j
+@Singleton
+public class RuntimeConfigChangeFeed {
+
+  public static final String CHANNEL = "yb_runtime_config_change";
+
+  private static final int POLL_TIMEOUT_MS = 500;
+
+  private static final long MIN_RETRY_DELAY_MS = 500;
+
+  private static final long MAX_RETRY_DELAY_MS = 30000;
+
+  // Settings of the DB the listening connection is opened to, outside of the application pool.
+  private static final String DB_CONFIG_PATH = "db.default";
+
+  /** Receives the changes published by the other instances. */
+  public interface Subscriber {
+    void onChange(UUID scopeUUID, String keyPath);
+
+    // Called when changes may have been missed. All the derived state must be dropped.
+    void onResync();
+  }
+
+  // Identifies the notifications sent by this instance.
+  private final UUID instanceId = UUID.randomUUID();
+
+  private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+  private final AtomicBoolean started = new AtomicBoolean();
+
+  private volatile boolean shutdown;
+
+  private volatile Thread listenerThread;
+
+  private final Config config;
+
+  @Inject
+  public RuntimeConfigChangeFeed(Config config, ApplicationLifecycle lifecycle) {
+    this.config = config;
+    lifecycle.addStopHook(
+        () -> {
+          shutdown();
+          return CompletableFuture.completedFuture(null);
+        });
+  }
+
+  public void subscribe(Subscriber subscriber) {
+    subscribers.add(subscriber);
+    if (started.compareAndSet(false, true)) {
+      listenerThread = new Thread(this::listenLoop, "runtime-config-change-feed");
+      listenerThread.setDaemon(true);
+      listenerThread.start();
+    }
+  }
+
+  /** Publish a change to all the instances. Delivered on commit if called in a transaction. */
+  public void publish(UUID scopeUUID, String keyPath) {
+    try {
+      DB.sqlQuery("select pg_notify(:channel, :payload)")
+          .setParameter("channel", CHANNEL)
+          .setParameter("payload", instanceId + ":" + scopeUUID + ":" + keyPath)
+          .findOne();
+    } catch (Exception e) {
+      log.error("Failed to publish runtime config change of {} for {}", keyPath, scopeUUID, e);
+    }
+  }
+
+  public void resync() {
+    for (Subscriber subscriber : subscribers) {
+      try {
+        subscriber.onResync();
+      } catch (Exception e) {
+        log.error("Runtime config change feed subscriber failed to resync", e);
+      }
+    }
+  }
+
+  /** Stops the listener thread, which closes its connection within the poll timeout. */
+  public void shutdown() {
+    shutdown = true;
+    Thread thread = listenerThread;
+    if (thread != null) {
+      // Wakes it up from a retry delay.
+      thread.interrupt();
+    }
+  }
+
+  private void listenLoop() {
+    long retryDelayMs = MIN_RETRY_DELAY_MS;
+    while (!shutdown) {
+      try (Connection connection = openListenConnection()) {
+        // LISTEN only takes effect once committed.
+        connection.setAutoCommit(true);
+        try (Statement statement = connection.createStatement()) {
+          statement.execute("LISTEN " + CHANNEL);
+        }
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        log.info("Listening for runtime config changes on {}", CHANNEL);
+        retryDelayMs = MIN_RETRY_DELAY_MS;
+        resync();
+        while (!shutdown) {
+          PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MS);
+          if (notifications == null) {
+            continue;
+          }
+          for (PGNotification notification : notifications) {
+            handle(notification.getParameter());
+          }
+        }
+      } catch (Exception e) {
+        if (shutdown) {
+          break;
+        }
+        log.warn(
+            "Runtime config change feed disconnected, retrying in {}ms: {}",
+            retryDelayMs,
+            e.getMessage());
+        try {
+          Thread.sleep(retryDelayMs);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        retryDelayMs = Math.min(retryDelayMs * 2, MAX_RETRY_DELAY_MS);
+      }
+    }
+  }
+
+  // The connection is held as long as the feed runs, so it is not taken from the application pool.
+  private Connection openListenConnection() throws SQLException {
+    Config dbConfig = config.getConfig(DB_CONFIG_PATH);
+    Properties properties = new Properties();
+    if (dbConfig.hasPath("username")) {
+      properties.setProperty("user", dbConfig.getString("username"));
+    }
+    if (dbConfig.hasPath("password")) {
+      properties.setProperty("password", dbConfig.getString("password"));
+    }
+    properties.setProperty("ApplicationName", "yba-runtime-config-change-feed");
+    return DriverManager.getConnection(dbConfig.getString("url"), properties);
+  }
+
+  @VisibleForTesting
+  void handle(String payload) {
+    String[] parts = payload.split(":", 3);
+    if (parts.length != 3) {
+      log.warn("Ignoring malformed runtime config change {}", payload);
+      return;
+    }
+    if (parts[0].equals(instanceId.toString())) {
+      // Local listeners are invoked by the RuntimeConfigChangeNotifier.
+      return;
+    }
+    UUID scopeUUID;
+    try {
+      scopeUUID = UUID.fromString(parts[1]);
+    } catch (IllegalArgumentException e) {
+      log.warn("Ignoring runtime config change with invalid scope {}", payload);
+      return;
+    }
+    for (Subscriber subscriber : subscribers) {
+      try {
+        subscriber.onChange(scopeUUID, parts[2]);
+      } catch (Exception e) {
+        log.error("Runtime config change feed subscriber failed for {}", parts[2], e);
+      }
+    }
+  }
+}
@@ -1,20 +1,147 @@
 package config;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import models.Customer;
 import models.Provider;
 import models.Universe;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Dispatches runtime config changes to the listeners registered for the changed key path.
+ * Listeners can be added from any thread. Changes are processed asynchronously on a small bounded
+ * executor, and repeated changes to the same scope and key path that arrive before the listeners
+ * have run are coalesced into a single dispatch.
+ */
+@Slf4j
 @Singleton
 public class RuntimeConfigChangeNotifier {
 
-  private final Map<String, List<RuntimeConfigChangeListener>> listenerMap = new HashMap<>();
+  private static final int DISPATCH_THREADS = 2;
+
+  // Pending dispatches beyond this run on the caller thread.
+  private static final int DISPATCH_QUEUE_CAPACITY = 1000;
+
+  private final Map<String, List<RuntimeConfigChangeListener>> listenerMap =
+      new ConcurrentHashMap<>();
+
+  // Scope and key path pairs with a dispatch queued but not yet started.
+  private final Set<ChangeKey> pendingChanges = ConcurrentHashMap.newKeySet();
+
+  private final ExecutorService dispatchExecutor;
+
+  private final RuntimeConfigChangeFeed changeFeed;
+
+  @Inject
+  public RuntimeConfigChangeNotifier(RuntimeConfigChangeFeed changeFeed) {
+    this(
+        changeFeed,
+        new ThreadPoolExecutor(
+            DISPATCH_THREADS,
+            DISPATCH_THREADS,
+            60L,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(DISPATCH_QUEUE_CAPACITY),
+            new ThreadFactoryBuilder()
+                .setNameFormat("runtime-config-notifier-%d")
+                .setDaemon(true)
+                .build(),
+            new ThreadPoolExecutor.CallerRunsPolicy()));
+  }
+
+  @VisibleForTesting
+  RuntimeConfigChangeNotifier(
+      RuntimeConfigChangeFeed changeFeed, ExecutorService dispatchExecutor) {
+    this.changeFeed = changeFeed;
+    this.dispatchExecutor = dispatchExecutor;
+  }
 
   @VisibleForTesting
   public void addListener(RuntimeConfigChangeListener listener) {
-    listenerMap.computeIfAbsent(listener.getKeyPath(), k -> new ArrayList<>()).add(listener);
+    listenerMap
+        .computeIfAbsent(listener.getKeyPath(), k -> new CopyOnWriteArrayList<>())
+        .add(listener);
+  }
+
+  /**
+   * Schedule the listeners registered for the key path to be invoked. The scope UUID is resolved to
+   * the global scope, a customer, a universe or a provider, in that order, on the dispatch thread
+   * and the matching process method is called on each listener. The change is also published to
+   * the other YBA instances sharing the DB.
+   */
+  public void notifyListeners(UUID scopeUUID, String keyPath) {
+    changeFeed.publish(scopeUUID, keyPath);
+    if (!listenerMap.containsKey(keyPath)) {
+      return;
+    }
+    ChangeKey changeKey = new ChangeKey(scopeUUID, keyPath);
+    if (!pendingChanges.add(changeKey)) {
+      // A dispatch for the same change is already queued and will observe the latest state.
+      return;
+    }
+    dispatchExecutor.execute(
+        () -> {
+          // Clear before dispatching so that a change made while the listeners run is not lost.
+          pendingChanges.remove(changeKey);
+          dispatch(scopeUUID, keyPath);
+        });
+  }
+
+  @VisibleForTesting
+  void dispatch(UUID scopeUUID, String keyPath) {
+    List<RuntimeConfigChangeListener> listeners = listenerMap.get(keyPath);
+    if (listeners == null || listeners.isEmpty()) {
+      return;
+    }
+    if (RuntimeConfigFactory.GLOBAL_SCOPE_UUID.equals(scopeUUID)) {
+      forEachListener(listeners, keyPath, RuntimeConfigChangeListener::processGlobal);
+      return;
+    }
+    Customer customer = Customer.get(scopeUUID);
+    if (customer != null) {
+      forEachListener(listeners, keyPath, listener -> listener.processCustomer(customer));
+      return;
+    }
+    Optional<Universe> universe = Universe.maybeGet(scopeUUID);
+    if (universe.isPresent()) {
+      forEachListener(listeners, keyPath, listener -> listener.processUniverse(universe.get()));
+      return;
+    }
+    Optional<Provider> provider = Provider.maybeGet(scopeUUID);
+    if (provider.isPresent()) {
+      forEachListener(listeners, keyPath, listener -> listener.processProvider(provider.get()));
+      return;
+    }
+    log.warn("Unknown scope {} for runtime config change of {}", scopeUUID, keyPath);
+  }
+
+  private void forEachListener(
+      List<RuntimeConfigChangeListener> listeners,
+      String keyPath,
+      Consumer<RuntimeConfigChangeListener> action) {
+    for (RuntimeConfigChangeListener listener : listeners) {
+      try {
+        action.accept(listener);
+      } catch (Exception e) {
+        log.error("Runtime config change listener for {} failed", keyPath, e);
+      }
+    }
+  }
+
+  @Value
+  private static class ChangeKey {
+    UUID scopeUUID;
+    String keyPath;
   }
 }
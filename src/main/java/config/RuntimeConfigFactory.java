@@ -1,11 +1,15 @@
 package config;
 
 import com.typesafe.config.Config;
+import java.util.UUID;
 import models.Customer;
 import models.Provider;
 import models.Universe;
 
 public interface RuntimeConfigFactory {
+  // Scope UUID under which global runtime config entries are stored.
+  UUID GLOBAL_SCOPE_UUID = new UUID(0, 0);
+
   Config forCustomer(Customer customer);
 
   Config forUniverse(Universe universe);
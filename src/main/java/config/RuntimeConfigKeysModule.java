@@ -16,18 +16,18 @@ abstract class RuntimeConfigKeysModule extends AbstractModule {
 
   @Override
   protected void configure() {
-    // MapBinder<String, ConfKeyInfo<?>> mapBinder =
-    //     MapBinder.newMapBinder(
-    //         binder(), new TypeLiteral<String>() {}, new TypeLiteral<ConfKeyInfo<?>>() {});
-    // for (Field field : this.getClass().getDeclaredFields()) {
-    //   if (Modifier.isStatic(field.getModifiers()) && field.getType().equals(ConfKeyInfo.class)) {
-    //     try {
-    //       ConfKeyInfo<?> keyInfo = (ConfKeyInfo<?>) field.get(null);
-    //       mapBinder.addBinding(keyInfo.key).toInstance(keyInfo);
-    //     } catch (IllegalAccessException e) {
-    //       throw new RuntimeException(e);
-    //     }
-    //   }
-    // }
+    MapBinder<String, ConfKeyInfo<?>> mapBinder =
+        MapBinder.newMapBinder(
+            binder(), new TypeLiteral<String>() {}, new TypeLiteral<ConfKeyInfo<?>>() {});
+    for (Field field : this.getClass().getDeclaredFields()) {
+      if (Modifier.isStatic(field.getModifiers()) && field.getType().equals(ConfKeyInfo.class)) {
+        try {
+          ConfKeyInfo<?> keyInfo = (ConfKeyInfo<?>) field.get(null);
+          mapBinder.addBinding(keyInfo.key).toInstance(keyInfo);
+        } catch (IllegalAccessException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }
   }
 }
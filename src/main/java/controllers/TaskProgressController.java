@@ -0,0 +1,240 @@
+package controllers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import javax.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import models.Customer;
+import models.CustomerTask;
+import models.TaskInfo;
+import models.TaskInfoWriter;
+import models.TaskProgressEventBus;
+import models.TaskProgressEventBus.Subscription;
+import models.TaskTree;
+import models.UserTaskDetails;
+import models.UserTaskDetails.SubTaskDetails;
+import models.UserTaskDetails.SubTaskGroupType;
+import org.apache.pekko.actor.ActorSystem;
+import org.apache.pekko.stream.OverflowStrategy;
+import org.apache.pekko.stream.QueueOfferResult;
+import org.apache.pekko.stream.javadsl.Source;
+import org.apache.pekko.stream.javadsl.SourceQueueWithComplete;
+import play.libs.EventSource;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Http;
+import play.mvc.Result;
+
+/**
+ * Streams the progress of a customer task as server-sent events. The first event is a snapshot of
+ * the task tree read with a single query, and the following events are the state and progress
+ * changes of the task and its subtasks pushed by the TaskProgressEventBus. The stream ends when the
+ * task completes.
+ *
+ * <p>The snapshot is read on the blocking IO dispatcher, with the task updates that are still
+ * buffered by the TaskInfoWriter applied, so that opening a stream neither blocks the stream
+ * materializer nor waits for the writer.
+ *
+ * <p>The snapshot carries the sequence of the last event it reflects, and only the events with a
+ * greater sequence follow it. Events of the same task that a slow client has not received yet are
+ * replaced by the latest one, as every event carries the full state of its task. If the client
+ * still falls behind by more than the buffer, the stream fails and the client reconnects to get a
+ * new snapshot.
+ *
+ * <p>Route: GET /api/v1/customers/:cUUID/tasks/:tUUID/progress_stream
+ */
+@Slf4j
+public class TaskProgressController extends Controller {
+
+  // Messages buffered per client before they are conflated.
+  private static final int STREAM_BUFFER_SIZE = 256;
+
+  private static final String SNAPSHOT_KEY = "snapshot";
+
+  private static final String BLOCKING_DISPATCHER = "pekko.actor.default-blocking-io-dispatcher";
+
+  private final TaskProgressEventBus progressEventBus;
+
+  private final TaskInfoWriter taskInfoWriter;
+
+  private final Executor blockingExecutor;
+
+  @Inject
+  public TaskProgressController(
+      TaskProgressEventBus progressEventBus,
+      TaskInfoWriter taskInfoWriter,
+      ActorSystem actorSystem) {
+    this.progressEventBus = progressEventBus;
+    this.taskInfoWriter = taskInfoWriter;
+    this.blockingExecutor = actorSystem.dispatchers().lookup(BLOCKING_DISPATCHER);
+  }
+
+  public Result streamProgress(UUID customerUUID, UUID taskUUID, Http.Request request) {
+    Customer.getOrBadRequest(customerUUID);
+    CustomerTask.getOrBadRequest(customerUUID, taskUUID);
+    Source<EventSource.Event, SourceQueueWithComplete<JsonNode>> events =
+        Source.<JsonNode>queue(STREAM_BUFFER_SIZE, OverflowStrategy.fail())
+            .mapMaterializedValue(queue -> startStream(taskUUID, queue))
+            .conflateWithSeed(
+                message -> conflate(new LinkedHashMap<>(), message),
+                TaskProgressController::conflate)
+            .mapConcat(Map::values)
+            .map(EventSource.Event::event);
+    return ok().chunked(events.via(EventSource.flow())).as(Http.MimeTypes.EVENT_STREAM);
+  }
+
+  private SourceQueueWithComplete<JsonNode> startStream(
+      UUID taskUUID, SourceQueueWithComplete<JsonNode> queue) {
+    ProgressStream stream = new ProgressStream(queue);
+    // Subscribe before the snapshot is read so that no change is missed in between.
+    stream.subscription = progressEventBus.subscribe(taskUUID, stream::onEvent);
+    queue.watchCompletion().whenComplete((done, t) -> stream.subscription.close());
+    // Every change published up to this sequence is buffered or written before the snapshot is
+    // read, and the snapshot reads both.
+    long snapshotSequence = progressEventBus.currentSequence();
+    CompletableFuture.supplyAsync(
+            () -> TaskTree.load(taskUUID, taskInfoWriter).orElse(null), blockingExecutor)
+        .whenComplete(
+            (taskTree, t) -> {
+              if (t != null) {
+                log.error("Failed to read the progress snapshot of task {}", taskUUID, t);
+                queue.fail(t);
+              } else if (taskTree == null) {
+                queue.complete();
+              } else {
+                stream.onSnapshot(taskTree, snapshotSequence);
+              }
+            });
+    return queue;
+  }
+
+  /**
+   * Orders the messages of one client. Events received before the snapshot is sent are held, and
+   * the events already reflected by the snapshot are dropped.
+   */
+  private static class ProgressStream {
+    private final SourceQueueWithComplete<JsonNode> queue;
+    private volatile Subscription subscription;
+    // Events received before the snapshot was sent, latest per task. Null once it was sent.
+    private Map<UUID, TaskProgressEventBus.Event> heldEvents = new LinkedHashMap<>();
+    private long snapshotSequence;
+
+    private ProgressStream(SourceQueueWithComplete<JsonNode> queue) {
+      this.queue = queue;
+    }
+
+    synchronized void onSnapshot(TaskTree taskTree, long sequence) {
+      snapshotSequence = sequence;
+      offer(toJson(taskTree, sequence));
+      if (TaskInfo.COMPLETED_STATES.contains(taskTree.getRoot().getTaskState())) {
+        queue.complete();
+      } else {
+        heldEvents.values().forEach(this::send);
+      }
+      heldEvents = null;
+    }
+
+    synchronized void onEvent(TaskProgressEventBus.Event event) {
+      if (heldEvents != null) {
+        heldEvents.merge(
+            event.getTaskUUID(),
+            event,
+            (held, latest) -> latest.getSequence() > held.getSequence() ? latest : held);
+        return;
+      }
+      send(event);
+    }
+
+    private void send(TaskProgressEventBus.Event event) {
+      if (event.getSequence() <= snapshotSequence) {
+        return;
+      }
+      offer(toJson(event));
+      if (event.isRootTaskCompleted()) {
+        queue.complete();
+      }
+    }
+
+    private void offer(JsonNode message) {
+      queue
+          .offer(message)
+          .whenComplete(
+              (result, t) -> {
+                if (t != null || !QueueOfferResult.enqueued().equals(result)) {
+                  // The stream failed on overflow or was closed by the client.
+                  log.debug("Stopping task progress stream after offer result {}", result, t);
+                  Subscription current = subscription;
+                  if (current != null) {
+                    current.close();
+                  }
+                }
+              });
+    }
+  }
+
+  // Keeps the latest message of each task, in the order the tasks were first seen.
+  private static LinkedHashMap<String, JsonNode> conflate(
+      LinkedHashMap<String, JsonNode> pending, JsonNode message) {
+    String key =
+        SNAPSHOT_KEY.equals(message.get("type").asText())
+            ? SNAPSHOT_KEY
+            : message.get("taskUUID").asText();
+    pending.merge(
+        key,
+        message,
+        (queued, latest) ->
+            latest.get("sequence").asLong() > queued.get("sequence").asLong() ? latest : queued);
+    return pending;
+  }
+
+  private static JsonNode toJson(TaskTree taskTree, long sequence) {
+    ObjectNode snapshot = Json.newObject();
+    snapshot.put("type", SNAPSHOT_KEY);
+    snapshot.put("sequence", sequence);
+    snapshot.put("taskUUID", taskTree.getRoot().getUuid().toString());
+    snapshot.put("status", taskTree.getRoot().getTaskState().name());
+    snapshot.put("percent", taskTree.getRoot().getPercentDone());
+    ArrayNode groups = snapshot.putArray("details");
+    for (TaskTree.GroupSummary summary : taskTree.getGroupSummaries()) {
+      ObjectNode group = groups.addObject();
+      addSubTaskDetails(group, summary.getSubTaskGroupType());
+      group.put("state", summary.getTaskState().name());
+      group.put("completed", summary.getCompletedCount());
+      group.put("total", summary.getTotalCount());
+    }
+    snapshot.set("subTasks", Json.toJson(taskTree.getNodes()));
+    return snapshot;
+  }
+
+  private static JsonNode toJson(TaskProgressEventBus.Event event) {
+    ObjectNode update = Json.newObject();
+    update.put("type", "progress");
+    update.put("sequence", event.getSequence());
+    update.put("taskUUID", event.getTaskUUID().toString());
+    if (event.getParentUUID() != null) {
+      update.put("parentUUID", event.getParentUUID().toString());
+    }
+    update.put("state", event.getTaskState().name());
+    update.put("percent", event.getPercentDone());
+    addSubTaskDetails(update, event.getSubTaskGroupType());
+    return update;
+  }
+
+  private static void addSubTaskDetails(ObjectNode node, SubTaskGroupType subTaskGroupType) {
+    if (subTaskGroupType == null) {
+      return;
+    }
+    node.put("subTaskGroupType", subTaskGroupType.name());
+    SubTaskDetails details = UserTaskDetails.createSubTask(subTaskGroupType);
+    if (details != null) {
+      node.put("title", details.getTitle());
+      node.put("description", details.getDescription());
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package db.migration.default_.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import models.UniverseDetailsCodec;
+import models.V366.Universe;
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+import play.libs.Json;
+
+/**
+ * Fill in the Smile copy of the universe details added by V365. The JSON tree is encoded as is,
+ * without going through the current UniverseDefinitionTaskParams class.
+ */
+@Slf4j
+public class V366__Backfill_Universe_Details_Smile extends BaseJavaMigration {
+
+  private static final int BATCH_SIZE = 100;
+
+  @Override
+  public void migrate(Context context) {
+    int count = 0;
+    List<Universe> universes;
+    while (!(universes = Universe.getWithoutSmile(BATCH_SIZE)).isEmpty()) {
+      for (Universe universe : universes) {
+        JsonNode tree = Json.parse(universe.getUniverseDetailsJson());
+        universe.setUniverseDetailsSmile(UniverseDetailsCodec.toSmile(tree));
+        universe.update();
+      }
+      count += universes.size();
+    }
+    log.info("Encoded universe details of {} universes as Smile", count);
+  }
+}
@@ -27,6 +27,8 @@ public class AlertFilter {
   Set<AlertConfiguration.Severity> severities;
   Set<AlertConfiguration.TargetType> configurationTypes;
   AlertLabel label;
+  // Fingerprint of the whole label set, see Alert.computeLabelsFingerprint.
+  Long labelsFingerprint;
   Boolean notificationPending;
   String sourceName;
   Date resolvedDateBefore;
@@ -48,6 +50,9 @@ public class AlertFilter {
     if (label != null) {
       result.label(label);
     }
+    if (labelsFingerprint != null) {
+      result.labelsFingerprint(labelsFingerprint);
+    }
     if (states != null) {
       result.states(states);
     }
@@ -122,12 +127,12 @@ public class AlertFilter {
 
 
     public AlertFilterBuilder label(@NonNull String name, @NonNull String value) {
-     // label = new AlertLabel(name, value);
+      label = new AlertLabel(name, value);
       return this;
     }
 
     public AlertFilterBuilder label(@NonNull AlertLabel label) {
-     // this.label = label;
+      this.label = label;
       return this;
     }
 
@@ -164,7 +169,7 @@ public class AlertFilter {
     }
 
     public AlertFilterBuilder notificationPending(boolean notificationPending) {
-      //this.notificationPending = notificationPending;
+      this.notificationPending = notificationPending;
       return this;
     }
 
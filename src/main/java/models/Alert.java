@@ -5,6 +5,8 @@ import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Streams;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import io.ebean.ExpressionList;
 import io.ebean.Finder;
 import io.ebean.Model;
@@ -20,10 +22,13 @@ import jakarta.persistence.Enumerated;
 import jakarta.persistence.Id;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.Transient;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -33,6 +38,7 @@ import javax.validation.constraints.Size;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.experimental.Accessors;
+import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import filters.AlertFilter;
 @Entity
@@ -163,6 +169,10 @@ public class Alert extends Model {
   @EqualsAndHashCode.Exclude
   private List<AlertLabel> labels;
 
+  @JsonIgnore
+  @ApiModelProperty(value = "Fingerprint of the alert labels", accessMode = READ_ONLY)
+  private Long labelsFingerprint;
+
   @ApiModelProperty(
       value = "Time of the last notification attempt",
       accessMode = READ_ONLY,
@@ -197,6 +207,120 @@ public class Alert extends Model {
     return uuid == null;
   }
 
+  // Writes made through the model, e.g. an acknowledgement, are applied to the alert state store.
+  // The labels fingerprint is computed on every write, as the labels may have changed.
+  @Override
+  public void save() {
+    updateLabelsFingerprint();
+    super.save();
+    AlertStateStore.onAlertWritten(this);
+  }
+
+  @Override
+  public void update() {
+    updateLabelsFingerprint();
+    super.update();
+    AlertStateStore.onAlertWritten(this);
+  }
+
+  private void updateLabelsFingerprint() {
+    if (labels != null) {
+      labelsFingerprint = computeLabelsFingerprint(labels);
+    }
+  }
+
+  @Override
+  public boolean delete() {
+    boolean deleted = super.delete();
+    AlertStateStore.onAlertDeleted(this);
+    return deleted;
+  }
+
+  /**
+   * Stable 64-bit fingerprint of the label set, independent of the order of the labels. Alerts of
+   * the same definition with the same fingerprint are the same alert.
+   */
+  public static long computeLabelsFingerprint(Collection<AlertLabel> labels) {
+    Hasher hasher = Hashing.farmHashFingerprint64().newHasher();
+    labels.stream()
+        .sorted(Comparator.comparing((AlertLabel label) -> label.getKey().getName()))
+        .forEach(
+            label ->
+                hasher
+                    .putString(label.getKey().getName(), StandardCharsets.UTF_8)
+                    .putByte((byte) 0)
+                    .putString(StringUtils.defaultString(label.getValue()), StandardCharsets.UTF_8)
+                    .putByte((byte) 0));
+    return hasher.hash().asLong();
+  }
+
+  /** Firing alert of the definition with the label set, looked up by the labels fingerprint. */
+  public static Optional<Alert> maybeGetFiring(UUID definitionUuid, long labelsFingerprint) {
+    return find.query()
+        .where()
+        .eq("definitionUuid", definitionUuid)
+        .eq("labelsFingerprint", labelsFingerprint)
+        .ne("state", State.RESOLVED)
+        .setMaxRows(1)
+        .findOneOrEmpty();
+  }
+
+  public static List<Alert> list(AlertFilter filter) {
+    return createQueryByFilter(filter).findList();
+  }
+
+  public static ExpressionList<Alert> createQueryByFilter(AlertFilter filter) {
+    ExpressionList<Alert> query = find.query().fetch("labels").where();
+    if (CollectionUtils.isNotEmpty(filter.getUuids())) {
+      query.idIn(filter.getUuids());
+    }
+    if (CollectionUtils.isNotEmpty(filter.getExcludeUuids())) {
+      query.notIn("uuid", filter.getExcludeUuids());
+    }
+    if (filter.getCustomerUuid() != null) {
+      query.eq("customerUUID", filter.getCustomerUuid());
+    }
+    if (CollectionUtils.isNotEmpty(filter.getStates())) {
+      query.in("state", filter.getStates());
+    }
+    if (CollectionUtils.isNotEmpty(filter.getDefinitionUuids())) {
+      query.in("definitionUuid", filter.getDefinitionUuids());
+    }
+    if (filter.getConfigurationUuid() != null) {
+      query.eq("configurationUuid", filter.getConfigurationUuid());
+    }
+    if (CollectionUtils.isNotEmpty(filter.getSeverities())) {
+      query.in("severity", filter.getSeverities());
+    }
+    if (CollectionUtils.isNotEmpty(filter.getConfigurationTypes())) {
+      query.in("configurationType", filter.getConfigurationTypes());
+    }
+    if (CollectionUtils.isNotEmpty(filter.getSourceUUIDs())) {
+      query.in("sourceUUID", filter.getSourceUUIDs());
+    }
+    if (filter.getSourceName() != null) {
+      query.eq("sourceName", filter.getSourceName());
+    }
+    if (filter.getResolvedDateBefore() != null) {
+      query.lt("resolvedTime", filter.getResolvedDateBefore());
+    }
+    if (filter.getNotificationPending() != null) {
+      String pending = "(notified_state is null or notified_state <> state)";
+      query.raw(filter.getNotificationPending() ? pending : "not " + pending);
+    }
+    if (filter.getLabelsFingerprint() != null) {
+      query.eq("labelsFingerprint", filter.getLabelsFingerprint());
+    }
+    if (filter.getLabel() != null) {
+      // Reads the (name, value) index of alert_label instead of joining the labels.
+      query.raw(
+          "uuid in (select alert_uuid from alert_label where name = ? and value = ?)",
+          filter.getLabel().getKey().getName(),
+          filter.getLabel().getValue());
+    }
+    return query;
+  }
+
 
 
 
@@ -42,18 +42,23 @@ public class AlertChannel extends Model {
   @Getter
   public enum ChannelType {
     @EnumValue("Email")
-    Email(true),
+    Email(true, true),
     @EnumValue("Slack")
-    Slack(false),
+    Slack(false, true),
     @EnumValue("PagerDuty")
-    PagerDuty(true),
+    PagerDuty(true, false),
     @EnumValue("WebHook")
-    WebHook(false);
+    WebHook(false, false);
 
     private final boolean hasTitle;
 
-    ChannelType(boolean hasTitle) {
+    // True if several alerts can be sent in a single digest notification. PagerDuty incidents and
+    // webhook payloads are per alert.
+    private final boolean digestSupported;
+
+    ChannelType(boolean hasTitle, boolean digestSupported) {
       this.hasTitle = hasTitle;
+      this.digestSupported = digestSupported;
     }
   }
 
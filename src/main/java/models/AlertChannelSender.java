@@ -0,0 +1,29 @@
+package models;
+
+import java.util.List;
+import javax.annotation.Nullable;
+import lombok.Value;
+import models.AlertChannel.ChannelType;
+
+/** Sends the alert notifications to the channels, implemented by the channel integrations. */
+public interface AlertChannelSender {
+
+  /** An alert with the notification title and text rendered from the channel templates. */
+  @Value
+  class RenderedAlert {
+    Alert alert;
+    // Null if the channel type has no title or no title template is set.
+    @Nullable String title;
+    String text;
+  }
+
+  ChannelType getChannelType(AlertChannel channel);
+
+  /**
+   * Sends the alerts to the channel. The list has a single alert unless the channel type supports
+   * digests.
+   *
+   * @throws Exception if the notification was not delivered.
+   */
+  void send(AlertChannel channel, List<RenderedAlert> alerts) throws Exception;
+}
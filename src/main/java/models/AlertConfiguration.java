@@ -5,6 +5,7 @@ import static io.swagger.annotations.ApiModelProperty.AccessMode.READ_WRITE;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.ebean.DB;
 import io.ebean.ExpressionList;
 import io.ebean.FetchGroup;
 import io.ebean.Finder;
@@ -16,11 +17,13 @@ import io.ebean.annotation.DbJson;
 import io.ebean.annotation.Formula;
 import io.swagger.annotations.ApiModel;
 import io.swagger.annotations.ApiModelProperty;
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EnumType;
 import jakarta.persistence.Enumerated;
 import jakarta.persistence.Id;
 import jakarta.persistence.Transient;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -136,51 +139,15 @@ public class AlertConfiguration extends Model {
   @EqualsAndHashCode.Exclude
   private Map<String, String> labels;
 
-  private static final String ALERT_COUNT_JOIN =
-      "left join "
-          + "(select _ac.uuid, count(*) as alert_count "
-          + "from alert_configuration _ac "
-          + "left join alert _a on _ac.uuid = _a.configuration_uuid "
-          + "where _a.state in ('ACTIVE', 'ACKNOWLEDGED') group by _ac.uuid"
-          + ") as _ac "
-          + "on _ac.uuid = ${ta}.uuid";
-
-  @Transient
-  @Formula(select = "alert_count", join = ALERT_COUNT_JOIN)
+  // Number of the ACTIVE and ACKNOWLEDGED alerts of the configuration, maintained by a trigger on
+  // the alert table on every alert write.
+  @Column(insertable = false, updatable = false)
+  @ApiModelProperty(value = "Number of firing alerts", accessMode = READ_ONLY)
   @EqualsAndHashCode.Exclude
-  Double alertCount;
-
-  private static final String TARGET_INDEX_JOIN =
-      "left join "
-          + "(select uuid, universe_name "
-          + "from ("
-          + "select uuid, "
-          + "universe_name, "
-          + "rank() OVER (PARTITION BY uuid ORDER BY universe_name asc) as rank "
-          + "from ("
-          + "select uuid, universe_names.name as universe_name "
-          + "from ("
-          + "(select uuid, replace(universe_uuid::text, '\"', '')::uuid as universe_uuid "
-          + "from ("
-          + "select uuid, json_array_elements(target::json->'uuids') as universe_uuid "
-          + "from alert_configuration "
-          + "where nullif(target::json->>'uuids', '') is not null"
-          + ") as tmp"
-          + ") as targets "
-          + "left join universe on targets.universe_uuid = universe.universe_uuid"
-          + ") as universe_names"
-          + ") as ranked_universe_names"
-          + ") as sorted_universe_names"
-          + ") as _un "
-          + "on _un.uuid = ${ta}.uuid";
+  Integer alertCount;
 
-  @Transient
-  @Formula(
-      select =
-          "(case"
-              + " when target like '%\"all\":true%' then 'ALL'"
-              + " else _un.universe_name end)",
-      join = TARGET_INDEX_JOIN)
+  // ALL or the first of the target universe names, used to sort the configurations by target.
+  @Column(insertable = false, updatable = false)
   @EqualsAndHashCode.Exclude
   @JsonIgnore
   private String targetName;
@@ -208,9 +175,82 @@ public class AlertConfiguration extends Model {
   @JsonIgnore
   private String destinationName;
 
+  private static final String REFRESH_ALERT_COUNTS =
+      "update alert_configuration ac set alert_count = coalesce(_a.alert_count, 0)"
+          + " from alert_configuration _ac left join"
+          + " (select configuration_uuid, count(*) as alert_count from alert"
+          + " where state in ('ACTIVE', 'ACKNOWLEDGED') group by configuration_uuid) as _a"
+          + " on _a.configuration_uuid = _ac.uuid"
+          + " where ac.uuid = _ac.uuid and ac.alert_count <> coalesce(_a.alert_count, 0)";
+
+  private static final String REFRESH_TARGET_NAMES =
+      "update alert_configuration ac set target_name = case"
+          + " when (ac.target::jsonb ->> 'all')::boolean then 'ALL'"
+          + " else (select min(u.name)"
+          + " from json_array_elements_text(ac.target::json->'uuids') as t(universe_uuid)"
+          + " join universe u on u.universe_uuid = t.universe_uuid::uuid) end";
+
   private static final Finder<UUID, AlertConfiguration> find =
       new Finder<UUID, AlertConfiguration>(AlertConfiguration.class) {};
 
+  // The target name is derived from the target, so it is refreshed on every write.
+  @Override
+  public void save() {
+    super.save();
+    refreshTargetNames(Collections.singleton(uuid));
+  }
+
+  @Override
+  public void update() {
+    super.update();
+    refreshTargetNames(Collections.singleton(uuid));
+  }
+
+  /**
+   * Creates the query of the configurations. The summary columns are only selected when required
+   * by the settings, e.g. to sort the page by them.
+   */
+  public static Query<AlertConfiguration> createQuery(QuerySettings querySettings) {
+    StringBuilder fields = new StringBuilder(RAW_FIELDS);
+    if (querySettings.isQueryCount()) {
+      fields.append(", alertCount");
+    }
+    if (querySettings.isQueryTargetIndex()) {
+      fields.append(", targetName");
+    }
+    if (querySettings.isQueryDestinationIndex()) {
+      fields.append(", destinationName");
+    }
+    return find.query().select(fields.toString());
+  }
+
+  /** Recounts the firing alerts of all the configurations. */
+  public static int refreshAlertCounts() {
+    return DB.sqlUpdate(REFRESH_ALERT_COUNTS).execute();
+  }
+
+  public static void refreshTargetNames(Collection<UUID> configurationUuids) {
+    if (CollectionUtils.isEmpty(configurationUuids)) {
+      return;
+    }
+    DB.sqlUpdate(REFRESH_TARGET_NAMES + " where ac.uuid in (:uuids)")
+        .setParameter("uuids", configurationUuids)
+        .execute();
+  }
+
+  /**
+   * Refreshes the target name of the configurations targeting the universe. The containment check
+   * is backed by the ix_alert_configuration_target_uuids index.
+   */
+  public static void refreshTargetNamesOfUniverse(UUID universeUuid) {
+    DB.sqlUpdate(
+            REFRESH_TARGET_NAMES
+                + " where (ac.target::jsonb -> 'uuids')"
+                + " @> jsonb_build_array(cast(:universeUuid as text))")
+        .setParameter("universeUuid", universeUuid.toString())
+        .execute();
+  }
+
 
 
   public AlertConfiguration generateUUID() {
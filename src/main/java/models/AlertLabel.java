@@ -31,6 +31,7 @@ public class AlertLabel extends Model{
 
   public AlertLabel(String name, String value) {
     this();
+    this.key.setName(name);
     this.value = value;
   }
 
@@ -0,0 +1,561 @@
+package models;
+
+import static play.mvc.Http.Status.INTERNAL_SERVER_ERROR;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import config.GlobalConfKeys;
+import config.RuntimeConfGetter;
+import filters.AlertFilter;
+import io.ebean.DB;
+import io.ebean.SqlRow;
+import io.ebean.Transaction;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import models.AlertChannel.ChannelType;
+import models.AlertChannelSender.RenderedAlert;
+import models.AlertTemplateCache.CompiledTemplates;
+
+/**
+ * Sends the pending alert notifications. The alerts are grouped by the channels of their
+ * destination, and each channel gets its alerts in digests if its type supports them, or one by one
+ * otherwise. The channels are sent to concurrently on a bounded pool, while the notifications of a
+ * channel are sent in order.
+ *
+ * <p>Each channel has a token bucket limiting its notification rate, and is backed off
+ * exponentially after a failed send. The notifications held back by either stay pending and are
+ * sent by a later dispatch. The notifications are rendered with the compiled channel templates of
+ * the customer from the {@link AlertTemplateCache}, or carry the alert message if the customer has
+ * no templates for the channel type. The channels that were notified of the current state of a
+ * pending alert are recorded in alert_channel_notification, so a later dispatch only sends to the
+ * channels that were deferred or failed.
+ */
+@Singleton
+@Slf4j
+public class AlertNotificationDispatcher {
+
+  private static final Duration BASE_BACKOFF = Duration.ofSeconds(10);
+
+  private static final String SET_NOTIFIED =
+      "update alert set notified_state = :notifiedState, notifications_failed = 0,"
+          + " notification_attempt_time = :attemptTime where uuid = :uuid";
+
+  private static final String LIST_NOTIFIED_CHANNELS =
+      "select alert_uuid, channel_uuid, notified_state from alert_channel_notification"
+          + " where alert_uuid in (:alertUuids)";
+
+  private static final String SET_CHANNEL_NOTIFIED =
+      "insert into alert_channel_notification (alert_uuid, channel_uuid, notified_state,"
+          + " notification_time) values (:alertUuid, :channelUuid, :notifiedState, :attemptTime)"
+          + " on conflict (alert_uuid, channel_uuid) do update set"
+          + " notified_state = excluded.notified_state,"
+          + " notification_time = excluded.notification_time";
+
+  private static final String DELETE_CHANNELS_NOTIFIED =
+      "delete from alert_channel_notification where alert_uuid = :alertUuid";
+
+  // Maximum number of alert UUIDs in one query.
+  private static final int MAX_QUERY_SIZE = 1000;
+
+  private static final long DISPATCH_INTERVAL_SECONDS = 30;
+
+  private static final String SET_NOTIFICATION_FAILED =
+      "update alert set notifications_failed = notifications_failed + 1,"
+          + " notification_attempt_time = :attemptTime where uuid = :uuid";
+
+  private static final Counter NOTIFICATIONS =
+      Counter.build()
+          .name("ybp_alert_notifications")
+          .help("Number of alert notifications by channel type and result, a digest counts as one")
+          .labelNames("channel_type", "result")
+          .register(CollectorRegistry.defaultRegistry);
+
+  // Outcome of the notification of an alert over all its channels. The highest one wins.
+  private enum Outcome {
+    SENT,
+    DEFERRED,
+    FAILED
+  }
+
+  // An alert delivered to a channel.
+  @Value
+  private static class Delivery {
+    Alert alert;
+    UUID channelUuid;
+  }
+
+  // The channel templates and template variables of the customers of a dispatch.
+  private static class CustomerTemplates {
+    private final Map<UUID, Map<ChannelType, AlertChannelTemplates>> templates = new HashMap<>();
+    private final Map<UUID, List<AlertTemplateVariable>> variables = new HashMap<>();
+
+    private static CustomerTemplates load(Collection<UUID> customerUuids) {
+      CustomerTemplates customerTemplates = new CustomerTemplates();
+      if (customerUuids.isEmpty()) {
+        return customerTemplates;
+      }
+      for (AlertChannelTemplates templates :
+          AlertChannelTemplates.createQuery().in("customerUUID", customerUuids).findList()) {
+        customerTemplates
+            .templates
+            .computeIfAbsent(templates.getCustomerUUID(), k -> new EnumMap<>(ChannelType.class))
+            .put(templates.getType(), templates);
+      }
+      for (AlertTemplateVariable variable :
+          AlertTemplateVariable.createQuery().in("customerUUID", customerUuids).findList()) {
+        customerTemplates
+            .variables
+            .computeIfAbsent(variable.getCustomerUUID(), k -> new ArrayList<>())
+            .add(variable);
+      }
+      return customerTemplates;
+    }
+
+    @Nullable
+    private CompiledTemplates get(UUID customerUUID, ChannelType channelType) {
+      AlertChannelTemplates channelTemplates =
+          templates.getOrDefault(customerUUID, Collections.emptyMap()).get(channelType);
+      if (channelTemplates == null) {
+        return null;
+      }
+      return AlertTemplateCache.get(
+          channelTemplates, variables.getOrDefault(customerUUID, Collections.emptyList()));
+    }
+  }
+
+  /** Rate limit and backoff of a channel, kept between the dispatches. */
+  private static class ChannelState {
+    private double tokens = -1;
+    private long lastRefillNanos;
+    private int consecutiveFailures;
+    private long retryAfterNanos;
+
+    // A rate of 0 means no limit.
+    synchronized boolean tryAcquire(int ratePerMinute, long nowNanos) {
+      if (ratePerMinute <= 0) {
+        return true;
+      }
+      if (tokens < 0) {
+        tokens = ratePerMinute;
+      } else {
+        double refill = (nowNanos - lastRefillNanos) * ratePerMinute / 60e9;
+        tokens = Math.min(ratePerMinute, tokens + refill);
+      }
+      lastRefillNanos = nowNanos;
+      if (tokens < 1) {
+        return false;
+      }
+      tokens--;
+      return true;
+    }
+
+    synchronized boolean isBackingOff(long nowNanos) {
+      return consecutiveFailures > 0 && nowNanos - retryAfterNanos < 0;
+    }
+
+    synchronized void onSuccess() {
+      consecutiveFailures = 0;
+    }
+
+    synchronized void onFailure(long nowNanos, Duration maxBackoff) {
+      consecutiveFailures++;
+      long backoffNanos = BASE_BACKOFF.toNanos() << Math.min(consecutiveFailures - 1, 20);
+      retryAfterNanos = nowNanos + Math.min(backoffNanos, maxBackoff.toNanos());
+    }
+  }
+
+  private final RuntimeConfGetter confGetter;
+
+  @Nullable private final AlertChannelSender channelSender;
+
+  private final ExecutorService sendExecutor;
+
+  private final AtomicBoolean started = new AtomicBoolean();
+
+  private volatile ScheduledExecutorService dispatchExecutor;
+
+  private final Map<UUID, ChannelState> channelStates = new ConcurrentHashMap<>();
+
+  /**
+   * @param channelSender bound by the alert channel integrations. Notifications are not dispatched
+   *     if it is absent.
+   */
+  @Inject
+  public AlertNotificationDispatcher(
+      RuntimeConfGetter confGetter, Optional<AlertChannelSender> channelSender) {
+    this.confGetter = confGetter;
+    this.channelSender = channelSender.orElse(null);
+    this.sendExecutor =
+        Executors.newFixedThreadPool(
+            confGetter.getGlobalConf(GlobalConfKeys.alertNotificationParallelism),
+            new ThreadFactoryBuilder()
+                .setNameFormat("alert-notification-%d")
+                .setDaemon(true)
+                .build());
+  }
+
+  /** Starts dispatching the pending notifications periodically. */
+  public void start() {
+    if (channelSender == null) {
+      log.warn("No alert channel sender is bound, alert notifications are not dispatched");
+      return;
+    }
+    if (!started.compareAndSet(false, true)) {
+      return;
+    }
+    dispatchExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("alert-notification-dispatch")
+                .setDaemon(true)
+                .build());
+    dispatchExecutor.scheduleWithFixedDelay(
+        () -> {
+          try {
+            dispatchPending();
+          } catch (Exception e) {
+            log.error("Alert notification dispatch failed", e);
+          }
+        },
+        DISPATCH_INTERVAL_SECONDS,
+        DISPATCH_INTERVAL_SECONDS,
+        TimeUnit.SECONDS);
+  }
+
+  /** Sends the notifications of all the alerts with a state change not notified yet. */
+  public void dispatchPending() {
+    dispatch(Alert.list(AlertFilter.builder().notificationPending(true).build()));
+  }
+
+  /**
+   * Sends the notifications of the alerts whose state was not notified yet, and records the
+   * outcome on the alerts.
+   */
+  public synchronized void dispatch(Collection<Alert> alerts) {
+    if (channelSender == null) {
+      throw new PlatformServiceException(
+          INTERNAL_SERVER_ERROR, "No alert channel sender is bound to send the notifications");
+    }
+    List<Alert> pending =
+        alerts.stream()
+            .filter(alert -> alert.getState() != alert.getNotifiedState())
+            // Suspended alerts are in a maintenance window.
+            .filter(alert -> alert.getState() != Alert.State.SUSPENDED)
+            .collect(Collectors.toList());
+    if (pending.isEmpty()) {
+      return;
+    }
+    Map<UUID, Outcome> outcomes = new ConcurrentHashMap<>();
+    pending.forEach(alert -> outcomes.put(alert.getUuid(), Outcome.SENT));
+
+    Map<AlertChannel, List<Alert>> channelAlerts = groupByChannel(pending);
+    removeNotifiedChannels(pending, channelAlerts);
+    CustomerTemplates customerTemplates =
+        CustomerTemplates.load(
+            channelAlerts.keySet().stream()
+                .map(AlertChannel::getCustomerUUID)
+                .collect(Collectors.toSet()));
+    Queue<Delivery> deliveries = new ConcurrentLinkedQueue<>();
+    int ratePerMinute = confGetter.getGlobalConf(GlobalConfKeys.alertNotificationChannelRate);
+    int maxDigestSize = confGetter.getGlobalConf(GlobalConfKeys.alertNotificationMaxDigestSize);
+    Duration maxBackoff = confGetter.getGlobalConf(GlobalConfKeys.alertNotificationMaxBackoff);
+    List<CompletableFuture<Void>> sends = new ArrayList<>();
+    for (Map.Entry<AlertChannel, List<Alert>> entry : channelAlerts.entrySet()) {
+      sends.add(
+          CompletableFuture.runAsync(
+              () ->
+                  sendToChannel(
+                      entry.getKey(),
+                      entry.getValue(),
+                      ratePerMinute,
+                      maxDigestSize,
+                      maxBackoff,
+                      customerTemplates,
+                      outcomes,
+                      deliveries),
+              sendExecutor));
+    }
+    CompletableFuture.allOf(sends.toArray(new CompletableFuture[0])).join();
+    recordOutcomes(pending, outcomes, deliveries);
+  }
+
+  // Drops the alerts from the channels that were already notified of their current state.
+  private static void removeNotifiedChannels(
+      List<Alert> alerts, Map<AlertChannel, List<Alert>> channelAlerts) {
+    Map<UUID, Alert> alertsByUuid =
+        alerts.stream().collect(Collectors.toMap(Alert::getUuid, alert -> alert));
+    Map<UUID, Set<UUID>> notifiedChannels = new HashMap<>();
+    for (List<UUID> alertUuids :
+        Lists.partition(new ArrayList<>(alertsByUuid.keySet()), MAX_QUERY_SIZE)) {
+      for (SqlRow row :
+          DB.sqlQuery(LIST_NOTIFIED_CHANNELS).setParameter("alertUuids", alertUuids).findList()) {
+        Alert alert = alertsByUuid.get(row.getUUID("alert_uuid"));
+        if (alert != null && alert.getState().name().equals(row.getString("notified_state"))) {
+          notifiedChannels
+              .computeIfAbsent(row.getUUID("channel_uuid"), k -> new HashSet<>())
+              .add(alert.getUuid());
+        }
+      }
+    }
+    if (notifiedChannels.isEmpty()) {
+      return;
+    }
+    channelAlerts
+        .entrySet()
+        .removeIf(
+            entry -> {
+              Set<UUID> notified = notifiedChannels.get(entry.getKey().getUuid());
+              if (notified != null) {
+                entry.getValue().removeIf(alert -> notified.contains(alert.getUuid()));
+              }
+              return entry.getValue().isEmpty();
+            });
+  }
+
+  private void sendToChannel(
+      AlertChannel channel,
+      List<Alert> alerts,
+      int ratePerMinute,
+      int maxDigestSize,
+      Duration maxBackoff,
+      CustomerTemplates customerTemplates,
+      Map<UUID, Outcome> outcomes,
+      Queue<Delivery> deliveries) {
+    ChannelState state = channelStates.computeIfAbsent(channel.getUuid(), k -> new ChannelState());
+    ChannelType channelType = channelSender.getChannelType(channel);
+    CompiledTemplates templates = customerTemplates.get(channel.getCustomerUUID(), channelType);
+    String typeLabel = channelType.name();
+    if (state.isBackingOff(System.nanoTime())) {
+      setOutcome(alerts, Outcome.DEFERRED, outcomes);
+      NOTIFICATIONS.labels(typeLabel, "deferred").inc();
+      return;
+    }
+    int notificationSize = channelType.isDigestSupported() ? maxDigestSize : 1;
+    List<List<Alert>> notifications = Lists.partition(alerts, Math.max(notificationSize, 1));
+    for (int i = 0; i < notifications.size(); i++) {
+      List<Alert> notification = notifications.get(i);
+      if (!state.tryAcquire(ratePerMinute, System.nanoTime())) {
+        deferRemaining(notifications, i, outcomes, typeLabel);
+        log.debug("Alert channel {} is rate limited", channel.getUuid());
+        return;
+      }
+      try {
+        channelSender.send(channel, render(notification, templates));
+        notification.forEach(alert -> deliveries.add(new Delivery(alert, channel.getUuid())));
+        state.onSuccess();
+        NOTIFICATIONS.labels(typeLabel, "sent").inc();
+      } catch (Exception e) {
+        state.onFailure(System.nanoTime(), maxBackoff);
+        setOutcome(notification, Outcome.FAILED, outcomes);
+        NOTIFICATIONS.labels(typeLabel, "failed").inc();
+        log.warn(
+            "Failed to send {} alerts to channel {} ({})",
+            notification.size(),
+            channel.getName(),
+            channel.getUuid(),
+            e);
+        // The channel is backing off now, the rest waits for the next dispatch.
+        deferRemaining(notifications, i + 1, outcomes, typeLabel);
+        return;
+      }
+    }
+  }
+
+  private static List<RenderedAlert> render(
+      List<Alert> alerts, @Nullable CompiledTemplates templates) {
+    List<RenderedAlert> rendered = new ArrayList<>(alerts.size());
+    for (Alert alert : alerts) {
+      if (templates == null) {
+        rendered.add(new RenderedAlert(alert, null, alert.getMessage()));
+        continue;
+      }
+      String title = templates.getTitle() == null ? null : templates.getTitle().render(alert);
+      rendered.add(new RenderedAlert(alert, title, templates.getText().render(alert)));
+    }
+    return rendered;
+  }
+
+  private static void deferRemaining(
+      List<List<Alert>> notifications, int from, Map<UUID, Outcome> outcomes, String typeLabel) {
+    for (List<Alert> notification : notifications.subList(from, notifications.size())) {
+      setOutcome(notification, Outcome.DEFERRED, outcomes);
+      NOTIFICATIONS.labels(typeLabel, "deferred").inc();
+    }
+  }
+
+  private static void setOutcome(
+      Collection<Alert> alerts, Outcome outcome, Map<UUID, Outcome> outcomes) {
+    for (Alert alert : alerts) {
+      outcomes.merge(alert.getUuid(), outcome, (a, b) -> a.compareTo(b) >= 0 ? a : b);
+    }
+  }
+
+  /**
+   * Groups the alerts by the channels of the destination of their configuration, or of the default
+   * destination of the customer. An alert without a destination is not in any group.
+   */
+  @VisibleForTesting
+  Map<AlertChannel, List<Alert>> groupByChannel(List<Alert> alerts) {
+    Set<UUID> configurationUuids =
+        alerts.stream().map(Alert::getConfigurationUuid).collect(Collectors.toSet());
+    Map<UUID, AlertConfiguration> configurations =
+        DB.find(AlertConfiguration.class).where().idIn(configurationUuids).findList().stream()
+            .collect(Collectors.toMap(AlertConfiguration::getUuid, c -> c));
+    Set<UUID> destinationUuids = new HashSet<>();
+    Set<UUID> defaultDestinationCustomers = new HashSet<>();
+    for (AlertConfiguration configuration : configurations.values()) {
+      if (configuration.isDefaultDestination()) {
+        defaultDestinationCustomers.add(configuration.getCustomerUUID());
+      } else if (configuration.getDestinationUUID() != null) {
+        destinationUuids.add(configuration.getDestinationUUID());
+      }
+    }
+    Map<UUID, AlertDestination> destinations = new HashMap<>();
+    Map<UUID, AlertDestination> defaultDestinations = new HashMap<>();
+    if (!destinationUuids.isEmpty()) {
+      for (AlertDestination destination :
+          AlertDestination.createQuery().idIn(destinationUuids).findList()) {
+        destinations.put(destination.getUuid(), destination);
+      }
+    }
+    if (!defaultDestinationCustomers.isEmpty()) {
+      List<AlertDestination> found =
+          AlertDestination.createQuery()
+              .eq("defaultDestination", true)
+              .in("customerUUID", defaultDestinationCustomers)
+              .findList();
+      for (AlertDestination destination : found) {
+        defaultDestinations.put(destination.getCustomerUUID(), destination);
+      }
+    }
+
+    // Keyed by the channel UUID, as a channel is loaded once per destination.
+    Map<UUID, AlertChannel> channels = new HashMap<>();
+    Map<UUID, List<Alert>> channelAlerts = new LinkedHashMap<>();
+    for (Alert alert : alerts) {
+      AlertConfiguration configuration = configurations.get(alert.getConfigurationUuid());
+      if (configuration == null) {
+        continue;
+      }
+      AlertDestination destination =
+          configuration.isDefaultDestination()
+              ? defaultDestinations.get(configuration.getCustomerUUID())
+              : destinations.get(configuration.getDestinationUUID());
+      if (destination == null) {
+        continue;
+      }
+      for (AlertChannel channel : destination.getChannelsList()) {
+        channels.putIfAbsent(channel.getUuid(), channel);
+        channelAlerts.computeIfAbsent(channel.getUuid(), k -> new ArrayList<>()).add(alert);
+      }
+    }
+    Map<AlertChannel, List<Alert>> result = new LinkedHashMap<>();
+    channelAlerts.forEach((uuid, channelList) -> result.put(channels.get(uuid), channelList));
+    return result;
+  }
+
+  // A sent alert was delivered to all its channels, now or by an earlier dispatch. For the other
+  // alerts, the channels they were delivered to are recorded so that they are not sent again.
+  private void recordOutcomes(
+      List<Alert> alerts, Map<UUID, Outcome> outcomes, Collection<Delivery> deliveries) {
+    Date attemptTime = new Date();
+    List<Alert> sent = new ArrayList<>();
+    List<Alert> failed = new ArrayList<>();
+    for (Alert alert : alerts) {
+      Outcome outcome = outcomes.get(alert.getUuid());
+      if (outcome == Outcome.SENT) {
+        sent.add(alert);
+      } else if (outcome == Outcome.FAILED) {
+        failed.add(alert);
+      }
+    }
+    List<Delivery> partialDeliveries =
+        deliveries.stream()
+            .filter(delivery -> outcomes.get(delivery.getAlert().getUuid()) != Outcome.SENT)
+            .collect(Collectors.toList());
+    try (Transaction transaction = DB.beginTransaction()) {
+      transaction.setBatchMode(true);
+      AlertStateStore.executeBatches(
+          SET_NOTIFIED,
+          sent,
+          (sqlUpdate, alert) ->
+              sqlUpdate
+                  .setParameter("notifiedState", alert.getState().name())
+                  .setParameter("attemptTime", attemptTime)
+                  .setParameter("uuid", alert.getUuid()));
+      AlertStateStore.executeBatches(
+          DELETE_CHANNELS_NOTIFIED,
+          sent,
+          (sqlUpdate, alert) -> sqlUpdate.setParameter("alertUuid", alert.getUuid()));
+      AlertStateStore.executeBatches(
+          SET_CHANNEL_NOTIFIED,
+          partialDeliveries,
+          (sqlUpdate, delivery) ->
+              sqlUpdate
+                  .setParameter("alertUuid", delivery.getAlert().getUuid())
+                  .setParameter("channelUuid", delivery.getChannelUuid())
+                  .setParameter("notifiedState", delivery.getAlert().getState().name())
+                  .setParameter("attemptTime", attemptTime));
+      AlertStateStore.executeBatches(
+          SET_NOTIFICATION_FAILED,
+          failed,
+          (sqlUpdate, alert) ->
+              sqlUpdate
+                  .setParameter("attemptTime", attemptTime)
+                  .setParameter("uuid", alert.getUuid()));
+      transaction.commit();
+    }
+    for (Alert alert : sent) {
+      alert.setNotifiedState(alert.getState());
+      alert.setNotificationsFailed(0);
+      alert.setNotificationAttemptTime(attemptTime);
+    }
+    for (Alert alert : failed) {
+      alert.setNotificationsFailed(alert.getNotificationsFailed() + 1);
+      alert.setNotificationAttemptTime(attemptTime);
+    }
+    log.debug(
+        "Alert notifications: {} sent, {} failed, {} deferred",
+        sent.size(),
+        failed.size(),
+        alerts.size() - sent.size() - failed.size());
+  }
+
+  public void shutdown() {
+    ScheduledExecutorService current = dispatchExecutor;
+    if (current != null) {
+      current.shutdownNow();
+    }
+    sendExecutor.shutdown();
+  }
+}
@@ -0,0 +1,429 @@
+package models;
+
+import com.google.common.collect.ImmutableList;
+import io.ebean.DB;
+import io.ebean.SqlUpdate;
+import io.ebean.Transaction;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import javax.inject.Singleton;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-memory state of the firing alerts, keyed by the alert definition and the fingerprint of the
+ * alert labels, with an inverted index of the label values. The evaluation cycle hands the alerts
+ * currently firing to {@link #reconcile}, which works out the raised, updated and resolved alerts
+ * against the memory state and writes them with batched statements in a single transaction,
+ * instead of reloading and saving every alert. The alert count of the alert configurations is
+ * maintained by a trigger on the alert table.
+ *
+ * <p>The store is loaded from the DB at startup by the BackgroundJobs. Changes made to the alerts
+ * outside of the evaluation cycle, e.g. an acknowledgement, are saved through the {@link Alert}
+ * model, which passes them to {@link #onAlertWritten} so that the loaded store follows them.
+ */
+@Singleton
+@Slf4j
+public class AlertStateStore {
+
+  private static final int MAX_BATCH_SIZE = 500;
+
+  private static final String INSERT_ALERT =
+      "insert into alert (uuid, customer_uuid, severity, name, message, source_name, source_uuid,"
+          + " state, definition_uuid, configuration_uuid, configuration_type, labels_fingerprint,"
+          + " notifications_failed) values (:uuid, :customerUUID, :severity, :name, :message,"
+          + " :sourceName, :sourceUUID, :state, :definitionUuid, :configurationUuid,"
+          + " :configurationType, :labelsFingerprint, 0)";
+
+  private static final String INSERT_ALERT_LABEL =
+      "insert into alert_label (alert_uuid, name, value) values (:alertUUID, :name, :value)";
+
+  private static final String SET_LABELS_FINGERPRINT =
+      "update alert set labels_fingerprint = :labelsFingerprint where uuid = :uuid";
+
+  private static final String UPDATE_ALERT =
+      "update alert set severity = :severity, name = :name, message = :message,"
+          + " source_name = :sourceName where uuid = :uuid";
+
+  // Only a firing alert is resolved, in case it was resolved meanwhile by another path.
+  private static final String RESOLVE_ALERT =
+      "update alert set state = 'RESOLVED', resolved_time = :resolvedTime"
+          + " where uuid = :uuid and state <> 'RESOLVED'";
+
+  private static final Counter ALERT_TRANSITIONS =
+      Counter.build()
+          .name("ybp_alert_state_transitions")
+          .help("Number of alert state transitions written by the alert state store")
+          .labelNames("transition")
+          .register(CollectorRegistry.defaultRegistry);
+
+  private static final Gauge FIRING_ALERTS =
+      Gauge.build("ybp_alert_state_firing", "Number of firing alerts in the alert state store")
+          .register(CollectorRegistry.defaultRegistry);
+
+  @Value
+  private static class AlertKey {
+    UUID definitionUuid;
+    long labelsFingerprint;
+
+    static AlertKey of(Alert alert) {
+      if (alert.getLabelsFingerprint() == null) {
+        alert.setLabelsFingerprint(Alert.computeLabelsFingerprint(alert.getLabels()));
+      }
+      return new AlertKey(alert.getDefinitionUuid(), alert.getLabelsFingerprint());
+    }
+  }
+
+  @Value
+  private static class LabelValue {
+    String name;
+    String value;
+
+    static LabelValue of(AlertLabel label) {
+      return new LabelValue(label.getKey().getName(), label.getValue());
+    }
+  }
+
+  /** Alert state changes of a reconciliation. */
+  @Value
+  public static class Transitions {
+    List<Alert> raised;
+    List<Alert> updated;
+    List<Alert> resolved;
+
+    public boolean isEmpty() {
+      return raised.isEmpty() && updated.isEmpty() && resolved.isEmpty();
+    }
+  }
+
+  private final Map<AlertKey, Alert> firingAlerts = new ConcurrentHashMap<>();
+
+  // Firing alert UUID to its key.
+  private final Map<UUID, AlertKey> alertKeys = new ConcurrentHashMap<>();
+
+  // Inverted index of the labels of the firing alerts.
+  private final Map<LabelValue, Set<AlertKey>> labelIndex = new ConcurrentHashMap<>();
+
+  // The store once it is loaded, which follows the alert writes made through the model.
+  private static final AtomicReference<AlertStateStore> LOADED = new AtomicReference<>();
+
+  /** Replaces the store contents with the firing alerts in the DB. */
+  public synchronized void rebuild() {
+    firingAlerts.clear();
+    alertKeys.clear();
+    labelIndex.clear();
+    List<Alert> alerts =
+        DB.find(Alert.class)
+            .fetch("labels")
+            .where()
+            .in("state", Alert.State.getFiringStates())
+            .findList();
+    // Alerts raised before the fingerprint was stored.
+    List<Alert> missingFingerprint =
+        alerts.stream()
+            .filter(alert -> alert.getLabelsFingerprint() == null)
+            .collect(Collectors.toList());
+    for (Alert alert : alerts) {
+      put(alert);
+    }
+    if (!missingFingerprint.isEmpty()) {
+      try (Transaction transaction = DB.beginTransaction()) {
+        transaction.setBatchMode(true);
+        transaction.setBatchSize(MAX_BATCH_SIZE);
+        executeBatches(
+            SET_LABELS_FINGERPRINT,
+            missingFingerprint,
+            (sqlUpdate, alert) ->
+                sqlUpdate
+                    .setParameter("labelsFingerprint", alert.getLabelsFingerprint())
+                    .setParameter("uuid", alert.getUuid()));
+        transaction.commit();
+      }
+      log.info("Set the labels fingerprint of {} firing alerts", missingFingerprint.size());
+    }
+    // The counts are maintained by the alert table trigger, fix any drift first.
+    int recounted = AlertConfiguration.refreshAlertCounts();
+    if (recounted > 0) {
+      log.info("Fixed the alert count of {} alert configurations", recounted);
+    }
+    FIRING_ALERTS.set(firingAlerts.size());
+    LOADED.set(this);
+    log.info("Loaded {} firing alerts into the alert state store", firingAlerts.size());
+  }
+
+  /** Applies an alert saved or updated through the model to the loaded store, if any. */
+  static void onAlertWritten(Alert alert) {
+    AlertStateStore store = LOADED.get();
+    if (store != null) {
+      store.onAlertUpdated(alert);
+    }
+  }
+
+  /** Removes an alert deleted through the model from the loaded store, if any. */
+  static void onAlertDeleted(Alert alert) {
+    AlertStateStore store = LOADED.get();
+    if (store != null) {
+      store.onAlertRemoved(alert);
+    }
+  }
+
+  /**
+   * Reconciles the alerts firing in an evaluation cycle with the store. A firing alert with no
+   * match in the store is raised, a matching alert is updated if its severity or text changed, and
+   * a stored alert of an evaluated definition that is no longer firing is resolved.
+   *
+   * @param evaluatedDefinitionUuids definitions evaluated in the cycle. Alerts of the other
+   *     definitions are left as is.
+   * @param firing new alerts, with labels, currently firing for the evaluated definitions.
+   * @return the transitions, once they are written to the DB.
+   */
+  public synchronized Transitions reconcile(
+      Collection<UUID> evaluatedDefinitionUuids, Collection<Alert> firing) {
+    Set<UUID> evaluated = new HashSet<>(evaluatedDefinitionUuids);
+    Map<AlertKey, Alert> firingByKey = new HashMap<>();
+    for (Alert alert : firing) {
+      firingByKey.put(AlertKey.of(alert), alert);
+    }
+
+    List<Alert> raised = new ArrayList<>();
+    List<Alert> updated = new ArrayList<>();
+    for (Map.Entry<AlertKey, Alert> entry : firingByKey.entrySet()) {
+      Alert candidate = entry.getValue();
+      Alert existing = firingAlerts.get(entry.getKey());
+      if (existing == null) {
+        candidate.setState(Alert.State.ACTIVE);
+        candidate.generateUUID();
+        candidate.getLabels().forEach(label -> label.getKey().setAlertUUID(candidate.getUuid()));
+        raised.add(candidate);
+      } else if (isChanged(existing, candidate)) {
+        // Keep the stored state, an acknowledged alert stays acknowledged.
+        updated.add(copyChanges(existing, candidate));
+      }
+    }
+
+    Date resolvedTime = new Date();
+    List<Alert> resolved = new ArrayList<>();
+    for (Map.Entry<AlertKey, Alert> entry : firingAlerts.entrySet()) {
+      AlertKey key = entry.getKey();
+      if (evaluated.contains(key.getDefinitionUuid()) && !firingByKey.containsKey(key)) {
+        resolved.add(entry.getValue());
+      }
+    }
+
+    Transitions transitions =
+        new Transitions(
+            ImmutableList.copyOf(raised),
+            ImmutableList.copyOf(updated),
+            ImmutableList.copyOf(resolved));
+    if (transitions.isEmpty()) {
+      return transitions;
+    }
+    // The store is only changed once the transitions are written, so that a failed write is
+    // retried by the next cycle.
+    write(transitions, resolvedTime);
+
+    raised.forEach(this::put);
+    updated.forEach(this::put);
+    for (Alert alert : resolved) {
+      alert.setState(Alert.State.RESOLVED);
+      alert.setResolvedTime(resolvedTime);
+      remove(alert.getUuid());
+    }
+    FIRING_ALERTS.set(firingAlerts.size());
+    ALERT_TRANSITIONS.labels("raised").inc(raised.size());
+    ALERT_TRANSITIONS.labels("updated").inc(updated.size());
+    ALERT_TRANSITIONS.labels("resolved").inc(resolved.size());
+    log.debug(
+        "Reconciled alerts: {} raised, {} updated, {} resolved",
+        raised.size(),
+        updated.size(),
+        resolved.size());
+    return transitions;
+  }
+
+  /** Applies a change of the alert made outside of the evaluation cycle. */
+  public synchronized void onAlertUpdated(Alert alert) {
+    if (alert.getState().isFiring()) {
+      remove(alert.getUuid());
+      put(alert);
+    } else {
+      remove(alert.getUuid());
+    }
+    FIRING_ALERTS.set(firingAlerts.size());
+  }
+
+  /** Applies a removal of the alert made outside of the evaluation cycle. */
+  public synchronized void onAlertRemoved(Alert alert) {
+    remove(alert.getUuid());
+    FIRING_ALERTS.set(firingAlerts.size());
+  }
+
+  public List<Alert> getFiringAlerts() {
+    return ImmutableList.copyOf(firingAlerts.values());
+  }
+
+  public List<Alert> getFiringAlerts(UUID definitionUuid) {
+    return firingAlerts.values().stream()
+        .filter(alert -> alert.getDefinitionUuid().equals(definitionUuid))
+        .collect(Collectors.toList());
+  }
+
+  /** Firing alerts having the label value, read from the inverted label index. */
+  public List<Alert> getFiringAlerts(String labelName, String labelValue) {
+    Set<AlertKey> keys = labelIndex.get(new LabelValue(labelName, labelValue));
+    if (keys == null) {
+      return ImmutableList.of();
+    }
+    return keys.stream()
+        .map(firingAlerts::get)
+        .filter(Objects::nonNull)
+        .collect(Collectors.toList());
+  }
+
+  public int getFiringCount() {
+    return firingAlerts.size();
+  }
+
+  private void write(Transitions transitions, Date resolvedTime) {
+    List<AlertLabel> labels =
+        transitions.getRaised().stream()
+            .flatMap(alert -> alert.getLabels().stream())
+            .collect(Collectors.toList());
+    try (Transaction transaction = DB.beginTransaction()) {
+      transaction.setBatchMode(true);
+      transaction.setBatchSize(MAX_BATCH_SIZE);
+      executeBatches(
+          INSERT_ALERT,
+          transitions.getRaised(),
+          (sqlUpdate, alert) ->
+              sqlUpdate
+                  .setParameter("uuid", alert.getUuid())
+                  .setParameter("customerUUID", alert.getCustomerUUID())
+                  .setParameter("severity", alert.getSeverity().name())
+                  .setParameter("name", alert.getName())
+                  .setParameter("message", alert.getMessage())
+                  .setParameter("sourceName", alert.getSourceName())
+                  .setParameter("sourceUUID", alert.getSourceUUID())
+                  .setParameter("state", alert.getState().name())
+                  .setParameter("definitionUuid", alert.getDefinitionUuid())
+                  .setParameter("configurationUuid", alert.getConfigurationUuid())
+                  .setParameter("configurationType", alert.getConfigurationType().name())
+                  .setParameter("labelsFingerprint", alert.getLabelsFingerprint()));
+      executeBatches(
+          INSERT_ALERT_LABEL,
+          labels,
+          (sqlUpdate, label) ->
+              sqlUpdate
+                  .setParameter("alertUUID", label.getKey().getAlertUUID())
+                  .setParameter("name", label.getKey().getName())
+                  .setParameter("value", label.getValue()));
+      executeBatches(
+          UPDATE_ALERT,
+          transitions.getUpdated(),
+          (sqlUpdate, alert) ->
+              sqlUpdate
+                  .setParameter("severity", alert.getSeverity().name())
+                  .setParameter("name", alert.getName())
+                  .setParameter("message", alert.getMessage())
+                  .setParameter("sourceName", alert.getSourceName())
+                  .setParameter("uuid", alert.getUuid()));
+      executeBatches(
+          RESOLVE_ALERT,
+          transitions.getResolved(),
+          (sqlUpdate, alert) ->
+              sqlUpdate
+                  .setParameter("resolvedTime", resolvedTime)
+                  .setParameter("uuid", alert.getUuid()));
+      transaction.commit();
+    }
+  }
+
+  static <T> void executeBatches(
+      String sql, List<T> rows, BiConsumer<SqlUpdate, T> binder) {
+    for (int from = 0; from < rows.size(); from += MAX_BATCH_SIZE) {
+      SqlUpdate sqlUpdate = DB.sqlUpdate(sql);
+      for (T row : rows.subList(from, Math.min(from + MAX_BATCH_SIZE, rows.size()))) {
+        binder.accept(sqlUpdate, row);
+        sqlUpdate.addBatch();
+      }
+      sqlUpdate.executeBatch();
+    }
+  }
+
+  private static boolean isChanged(Alert existing, Alert candidate) {
+    return existing.getSeverity() != candidate.getSeverity()
+        || !Objects.equals(existing.getName(), candidate.getName())
+        || !Objects.equals(existing.getMessage(), candidate.getMessage())
+        || !Objects.equals(existing.getSourceName(), candidate.getSourceName());
+  }
+
+  // The stored alert is shared with readers, so the update is made on a copy.
+  private static Alert copyChanges(Alert existing, Alert candidate) {
+    return new Alert()
+        .setLabels(existing.getLabels())
+        .setLabelsFingerprint(existing.getLabelsFingerprint())
+        .setUuid(existing.getUuid())
+        .setCustomerUUID(existing.getCustomerUUID())
+        .setAcknowledgedTime(existing.getAcknowledgedTime())
+        .setState(existing.getState())
+        .setDefinitionUuid(existing.getDefinitionUuid())
+        .setConfigurationUuid(existing.getConfigurationUuid())
+        .setConfigurationType(existing.getConfigurationType())
+        .setSourceUUID(existing.getSourceUUID())
+        .setNotificationAttemptTime(existing.getNotificationAttemptTime())
+        .setNotificationsFailed(existing.getNotificationsFailed())
+        .setNotifiedState(existing.getNotifiedState())
+        .setSeverity(candidate.getSeverity())
+        .setName(candidate.getName())
+        .setMessage(candidate.getMessage())
+        .setSourceName(candidate.getSourceName());
+  }
+
+  private void put(Alert alert) {
+    AlertKey key = AlertKey.of(alert);
+    Alert previous = firingAlerts.put(key, alert);
+    if (previous != null && !previous.getUuid().equals(alert.getUuid())) {
+      // Two firing alerts with the same labels, e.g. left by a crash between cycles.
+      log.warn("Alert {} duplicates firing alert {}", alert.getUuid(), previous.getUuid());
+      alertKeys.remove(previous.getUuid());
+    }
+    alertKeys.put(alert.getUuid(), key);
+    for (AlertLabel label : alert.getLabels()) {
+      labelIndex.computeIfAbsent(LabelValue.of(label), k -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+  }
+
+  private void remove(UUID alertUuid) {
+    AlertKey key = alertKeys.remove(alertUuid);
+    if (key == null) {
+      return;
+    }
+    Alert alert = firingAlerts.remove(key);
+    if (alert == null) {
+      return;
+    }
+    for (AlertLabel label : alert.getLabels()) {
+      labelIndex.computeIfPresent(
+          LabelValue.of(label),
+          (k, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+          });
+    }
+  }
+}
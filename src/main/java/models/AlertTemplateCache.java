@@ -0,0 +1,113 @@
+package models;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import javax.annotation.Nullable;
+import lombok.Value;
+import models.AlertChannel.ChannelType;
+
+/**
+ * Process wide cache of the compiled alert channel templates of each customer and channel type. An
+ * entry is only used while the template text and the custom variable defaults it was compiled from
+ * are unchanged, so an edit of the templates or variables compiles them again on the next use.
+ */
+public final class AlertTemplateCache {
+
+  private static final long MAX_ENTRIES = 10_000;
+
+  private static final Counter CACHE_REQUESTS =
+      Counter.build()
+          .name("ybp_alert_template_cache_requests")
+          .help("Number of compiled alert template lookups by result")
+          .labelNames("result")
+          .register(CollectorRegistry.defaultRegistry);
+
+  private static final Cache<Key, Entry> CACHE =
+      CacheBuilder.newBuilder().maximumSize(MAX_ENTRIES).build();
+
+  @Value
+  private static class Key {
+    UUID customerUUID;
+    ChannelType channelType;
+  }
+
+  // What the templates are compiled from.
+  @Value
+  private static class Source {
+    String titleTemplate;
+    String textTemplate;
+    Map<String, String> variableDefaults;
+  }
+
+  @Value
+  private static class Entry {
+    Source source;
+    CompiledTemplates templates;
+  }
+
+  /** Compiled title and text templates of a channel type. */
+  @Value
+  public static class CompiledTemplates {
+    // Null if the channel type has no title or no title template is set.
+    @Nullable CompiledAlertTemplate title;
+    CompiledAlertTemplate text;
+  }
+
+  private AlertTemplateCache() {}
+
+  /** Gets the compiled templates, compiling them only if the cached ones are outdated. */
+  public static CompiledTemplates get(
+      AlertChannelTemplates templates, Collection<AlertTemplateVariable> variables) {
+    Key key = new Key(templates.getCustomerUUID(), templates.getType());
+    Source source = toSource(templates, variables);
+    Entry entry = CACHE.getIfPresent(key);
+    if (entry != null && entry.getSource().equals(source)) {
+      CACHE_REQUESTS.labels("hit").inc();
+      return entry.getTemplates();
+    }
+    CACHE_REQUESTS.labels("miss").inc();
+    CompiledTemplates compiled = compile(source, templates.getType());
+    CACHE.put(key, new Entry(source, compiled));
+    return compiled;
+  }
+
+  public static void invalidate(UUID customerUUID) {
+    CACHE.asMap().keySet().removeIf(key -> key.getCustomerUUID().equals(customerUUID));
+  }
+
+  @VisibleForTesting
+  static void invalidateAll() {
+    CACHE.invalidateAll();
+  }
+
+  private static Source toSource(
+      AlertChannelTemplates templates, Collection<AlertTemplateVariable> variables) {
+    Map<String, String> variableDefaults = new HashMap<>();
+    for (AlertTemplateVariable variable : variables) {
+      variableDefaults.put(variable.getName(), variable.getDefaultValue());
+    }
+    return new Source(
+        templates.getTitleTemplate(),
+        templates.getTextTemplate(),
+        ImmutableMap.copyOf(variableDefaults));
+  }
+
+  private static CompiledTemplates compile(Source source, ChannelType channelType) {
+    Map<String, String> variableDefaults = source.getVariableDefaults();
+    CompiledAlertTemplate title = null;
+    if (channelType.isHasTitle() && source.getTitleTemplate() != null) {
+      title = CompiledAlertTemplate.compile(source.getTitleTemplate(), variableDefaults);
+    }
+    CompiledAlertTemplate text =
+        CompiledAlertTemplate.compile(source.getTextTemplate(), variableDefaults);
+    return new CompiledTemplates(title, text);
+  }
+}
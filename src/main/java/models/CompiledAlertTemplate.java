@@ -0,0 +1,124 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Alert notification template parsed once into the literal text between the placeholders and the
+ * accessors of the placeholder values, so that rendering it for an alert only appends strings.
+ *
+ * <p>Placeholders are {@code {{ $labels.<name> }}}, the value of the alert label or else the
+ * default value of the custom variable of that name, and {@code {{ $annotations.<name> }}}, the
+ * annotation of the alert. Anything else between braces is kept as is, and missing values render
+ * as empty.
+ */
+public final class CompiledAlertTemplate {
+
+  private static final String PLACEHOLDER_START = "{{";
+  private static final String PLACEHOLDER_END = "}}";
+  private static final String LABELS_PREFIX = "$labels.";
+  private static final String ANNOTATIONS_PREFIX = "$annotations.";
+
+  // Rendering buffers above this size are not kept by the thread.
+  private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+  private static final ThreadLocal<StringBuilder> BUFFER =
+      ThreadLocal.withInitial(() -> new StringBuilder(1024));
+
+  private interface ValueAccessor {
+    String get(Alert alert);
+  }
+
+  // One more literal than accessors, literal i is followed by the value of accessor i.
+  private final String[] literals;
+  private final ValueAccessor[] accessors;
+
+  private CompiledAlertTemplate(String[] literals, ValueAccessor[] accessors) {
+    this.literals = literals;
+    this.accessors = accessors;
+  }
+
+  /**
+   * Parses the template.
+   *
+   * @param variableDefaults default values of the custom variables by name.
+   */
+  public static CompiledAlertTemplate compile(
+      String template, Map<String, String> variableDefaults) {
+    List<String> literals = new ArrayList<>();
+    List<ValueAccessor> accessors = new ArrayList<>();
+    StringBuilder literal = new StringBuilder();
+    int position = 0;
+    while (position < template.length()) {
+      int start = template.indexOf(PLACEHOLDER_START, position);
+      int end = start < 0 ? -1 : template.indexOf(PLACEHOLDER_END, start);
+      if (end < 0) {
+        break;
+      }
+      ValueAccessor accessor =
+          toAccessor(
+              template.substring(start + PLACEHOLDER_START.length(), end).trim(),
+              variableDefaults);
+      if (accessor == null) {
+        // Not a placeholder, kept as text.
+        literal.append(template, position, end + PLACEHOLDER_END.length());
+      } else {
+        literal.append(template, position, start);
+        literals.add(literal.toString());
+        literal.setLength(0);
+        accessors.add(accessor);
+      }
+      position = end + PLACEHOLDER_END.length();
+    }
+    literal.append(template, position, template.length());
+    literals.add(literal.toString());
+    return new CompiledAlertTemplate(
+        literals.toArray(new String[0]), accessors.toArray(new ValueAccessor[0]));
+  }
+
+  private static ValueAccessor toAccessor(String name, Map<String, String> variableDefaults) {
+    if (name.startsWith(LABELS_PREFIX)) {
+      String labelName = name.substring(LABELS_PREFIX.length());
+      String defaultValue = variableDefaults.get(labelName);
+      return alert -> getLabelValue(alert, labelName, defaultValue);
+    }
+    if (name.startsWith(ANNOTATIONS_PREFIX)) {
+      String annotationName = name.substring(ANNOTATIONS_PREFIX.length());
+      return alert -> alert.getAnnotationValue(annotationName);
+    }
+    return null;
+  }
+
+  private static String getLabelValue(Alert alert, String labelName, String defaultValue) {
+    if (alert.getLabels() != null) {
+      for (AlertLabel label : alert.getLabels()) {
+        if (labelName.equals(label.getKey().getName())) {
+          return label.getValue();
+        }
+      }
+    }
+    return defaultValue;
+  }
+
+  public String render(Alert alert) {
+    if (accessors.length == 0) {
+      return literals[0];
+    }
+    StringBuilder buffer = BUFFER.get();
+    buffer.setLength(0);
+    for (int i = 0; i < accessors.length; i++) {
+      buffer.append(literals[i]);
+      String value = accessors[i].get(alert);
+      if (value != null) {
+        buffer.append(value);
+      }
+    }
+    buffer.append(literals[accessors.length]);
+    String result = buffer.toString();
+    if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+      BUFFER.remove();
+    }
+    return result;
+  }
+}
@@ -9,6 +9,7 @@ import com.google.api.client.util.Strings;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
+import io.ebean.ExpressionList;
 import io.ebean.Finder;
 import io.ebean.Model;
 import io.ebean.annotation.EnumValue;
@@ -35,7 +36,6 @@ import java.util.stream.Collectors;
 import jakarta.annotation.Nullable;
 import lombok.Getter;
 import lombok.Setter;
-import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -826,6 +826,21 @@ public class CustomerTask extends Model {
     return CustomerTask.find.query().where().eq("customer_uuid", customerUUID).findList();
   }
 
+  /**
+   * Get a page of the customer tasks, newest first. Pass the create time and id of the last task of
+   * the previous page to get the next page, or nulls to get the first page. Unlike an offset, the
+   * cost of a page does not grow with its distance from the first page.
+   */
+  public static List<CustomerTask> getPageByCustomerUUID(
+      UUID customerUUID, @Nullable Date beforeCreateTime, @Nullable Long beforeId, int limit) {
+    ExpressionList<CustomerTask> query =
+        CustomerTask.find.query().where().eq("customer_uuid", customerUUID);
+    if (beforeCreateTime != null && beforeId != null) {
+      query.raw("(create_time, id) < (?, ?)", beforeCreateTime, beforeId);
+    }
+    return query.orderBy("create_time desc, id desc").setMaxRows(limit).findList();
+  }
+
   @Deprecated
   public static CustomerTask get(UUID customerUUID, UUID taskUUID) {
     return CustomerTask.find
@@ -871,15 +886,6 @@ public class CustomerTask extends Model {
     return find.query().where().eq("task_uuid", taskUUID).findOne();
   }
 
-  public static List<CustomerTask> findOlderThan(Customer customer, Duration duration) {
-    Date cutoffDate = new Date(Instant.now().minus(duration).toEpochMilli());
-    return find.query()
-        .where()
-        .eq("customerUUID", null)
-        .le("completion_time", cutoffDate)
-        .findList();
-  }
-
   public static List<CustomerTask> findNewerThan(Customer customer, Duration duration) {
     Date cutoffDate = new Date(Instant.now().minus(duration).toEpochMilli());
     return find.query()
@@ -891,27 +897,34 @@ public class CustomerTask extends Model {
 
   public static Optional<CustomerTask> maybeGetByTargetUUIDTaskTypeTargetType(
       UUID customerUUID, UUID targetUUID, TaskType taskType, TargetType targetType) {
-    List<CustomerTask> cTaskList =
-        CustomerTask.find
-            .query()
-            .where()
-            .eq("customer_uuid", customerUUID)
-            .eq("type", taskType)
-            .eq("target_type", targetType)
-            .eq("target_uuid", targetUUID)
-            .orderBy("create_time desc")
-            .findList();
-    return CollectionUtils.isEmpty(cTaskList) ? Optional.empty() : Optional.of(cTaskList.get(0));
+    return CustomerTask.find
+        .query()
+        .where()
+        .eq("customer_uuid", customerUUID)
+        .eq("type", taskType)
+        .eq("target_type", targetType)
+        .eq("target_uuid", targetUUID)
+        .orderBy("create_time desc, id desc")
+        .setMaxRows(1)
+        .findOneOrEmpty();
   }
 
+  // Uses the partial index on the incomplete tasks. The tasks submitted through the TaskScheduler
+  // or TaskExecutor are answered without a query by the InFlightTaskRegistry.
   public static Optional<UUID> maybeGetIdenticalIncompleteTaskUUID(
       UUID customerUUID, UUID targetUUID, TaskType taskType, TargetType targetType) {
-    Optional<CustomerTask> oCustTask =
-        maybeGetByTargetUUIDTaskTypeTargetType(customerUUID, targetUUID, taskType, targetType);
-    if (oCustTask.isPresent()) {
-      return Optional.of(null);
-    }
-    return Optional.empty();
+    return CustomerTask.find
+        .query()
+        .where()
+        .eq("target_uuid", targetUUID)
+        .eq("type", taskType)
+        .isNull("completion_time")
+        .eq("customer_uuid", customerUUID)
+        .eq("target_type", targetType)
+        .orderBy("create_time desc, id desc")
+        .setMaxRows(1)
+        .findOneOrEmpty()
+        .map(CustomerTask::getTaskUUID);
   }
 
   public static List<CustomerTask> findIncompleteByTargetUUID(UUID targetUUID) {
@@ -919,19 +932,26 @@ public class CustomerTask extends Model {
   }
 
   public static CustomerTask getLastTaskByTargetUuid(UUID targetUUID) {
-    List<CustomerTask> tasks =
-        find.query()
-            .where()
-            .eq("target_uuid", targetUUID)
-            .isNotNull("completion_time")
-            .orderBy("completion_time desc")
-            .setMaxRows(1)
-            .findList();
-    if (tasks.size() > 0) {
-      return tasks.get(0);
-    } else {
-      return null;
+    return find.query()
+        .where()
+        .eq("target_uuid", targetUUID)
+        .isNotNull("completion_time")
+        .orderBy("completion_time desc")
+        .setMaxRows(1)
+        .findOne();
+  }
+
+  /**
+   * Get a page of the tasks of the target, newest first. The paging works as in {@link
+   * #getPageByCustomerUUID}.
+   */
+  public static List<CustomerTask> getPageByTargetUUID(
+      UUID targetUUID, @Nullable Date beforeCreateTime, @Nullable Long beforeId, int limit) {
+    ExpressionList<CustomerTask> query = find.query().where().eq("target_uuid", targetUUID);
+    if (beforeCreateTime != null && beforeId != null) {
+      query.raw("(create_time, id) < (?, ?)", beforeCreateTime, beforeId);
     }
+    return query.orderBy("create_time desc, id desc").setMaxRows(limit).findList();
   }
 
   public static Optional<CustomerTask> maybeGetLastTaskByTargetUuidTaskType(
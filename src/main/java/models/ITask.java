@@ -0,0 +1,22 @@
+package models;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import play.libs.Json;
+
+/** A unit of work run by the TaskExecutor, either as a task or as a subtask of a task. */
+public interface ITask extends Runnable {
+
+  String getName();
+
+  default JsonNode getTaskParams() {
+    return Json.newObject();
+  }
+
+  /**
+   * Called when the task is aborted while it is running. Blocking calls should return as soon as
+   * possible after this.
+   */
+  default void onAbort() {
+    // Do nothing by default
+  }
+}
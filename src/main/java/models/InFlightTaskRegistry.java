@@ -0,0 +1,351 @@
+package models;
+
+import static play.mvc.Http.Status.BAD_REQUEST;
+
+import com.google.common.collect.ImmutableList;
+import io.ebean.DB;
+import io.ebean.SqlRow;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+import javax.inject.Singleton;
+import lombok.Value;
+import lombok.With;
+import lombok.extern.slf4j.Slf4j;
+import models.CustomerTask.TargetType;
+import models.CustomerTask.TaskType;
+import models.TaskExecutor.RunnableTask;
+import models.TaskInfo.State;
+
+/**
+ * In-memory registry of the customer tasks in flight on each target, which answers the admission
+ * checks of a new task without a query. It is rebuilt from the DB at startup by the
+ * BackgroundJobs and then kept up to date by {@link TaskScheduler#schedule} and {@link
+ * TaskExecutor#submit}, which register each task before it is queued or submitted and complete it
+ * when it finishes.
+ *
+ * <p>Besides the running tasks, a target remembers the placement modification task that failed on
+ * it last. While it is set only the tasks that {@link UniverseTaskBase#getAdmission} admits after a
+ * failure of its type, or a retry of that very task, are admitted. A new task of the failed type is
+ * only admitted if the type can be rerun with new params. A successful placement modification task
+ * clears it.
+ *
+ * <p>The state of a target is immutable and replaced atomically, so admission and registration of a
+ * task are a single step and two concurrent submissions cannot both be admitted.
+ */
+@Singleton
+@Slf4j
+public class InFlightTaskRegistry {
+
+  private static final String LOCKED_UNIVERSES_QUERY =
+      "select universe_uuid, coalesce(universe_details, universe_details_json::jsonb)"
+          + "->>'updatingTaskUUID' as task_uuid from universe where update_in_progress";
+
+  private static final String BROKEN_UNIVERSES_QUERY =
+      "select universe_uuid, placement_modification_task_uuid from universe"
+          + " where placement_modification_task_uuid is not null";
+
+  /** A task in flight on a target. */
+  @Value
+  public static class InFlightTask {
+    UUID taskUUID;
+    UUID customerUUID;
+    UUID targetUUID;
+    TargetType targetType;
+    TaskType taskType;
+    // True if the task holds the lock on the target, e.g. the universe update lock.
+    @With boolean locked;
+  }
+
+  @Value
+  private static class TargetState {
+    static final TargetState EMPTY = new TargetState(ImmutableList.of(), null, null);
+
+    ImmutableList<InFlightTask> tasks;
+    // Last failed placement modification task on the target.
+    @Nullable UUID failedTaskUUID;
+    @Nullable TaskType failedTaskType;
+
+    boolean isEmpty() {
+      return tasks.isEmpty() && failedTaskUUID == null;
+    }
+
+    Optional<InFlightTask> getLockHolder() {
+      return tasks.stream().filter(InFlightTask::isLocked).findFirst();
+    }
+
+    TargetState withTask(InFlightTask task) {
+      return withTasks(ImmutableList.<InFlightTask>builder().addAll(tasks).add(task).build());
+    }
+
+    TargetState withTasks(ImmutableList<InFlightTask> newTasks) {
+      return new TargetState(newTasks, failedTaskUUID, failedTaskType);
+    }
+
+    TargetState withFailedTask(@Nullable UUID taskUUID, @Nullable TaskType taskType) {
+      return new TargetState(tasks, taskUUID, taskType);
+    }
+  }
+
+  private final Map<UUID, TargetState> targets = new ConcurrentHashMap<>();
+
+  // Task UUID to its target UUID.
+  private final Map<UUID, UUID> taskTargets = new ConcurrentHashMap<>();
+
+  /**
+   * Replaces the registry contents with the incomplete tasks and universe locks in the DB. The
+   * incomplete tasks that are not running are left by a previous process and never complete, so
+   * they are dropped as failed instead of blocking their target.
+   *
+   * @param isRunning whether the task with the UUID is running in this process.
+   */
+  public synchronized void rebuild(Predicate<UUID> isRunning) {
+    targets.clear();
+    taskTargets.clear();
+    Map<UUID, UUID> lockHolders = new HashMap<>();
+    for (SqlRow row : DB.sqlQuery(LOCKED_UNIVERSES_QUERY).findList()) {
+      String taskUUID = row.getString("task_uuid");
+      if (taskUUID != null) {
+        lockHolders.put(UUID.fromString(taskUUID), row.getUUID("universe_uuid"));
+      }
+    }
+    List<CustomerTask> incompleteTasks =
+        CustomerTask.find.query().where().isNull("completion_time").findList();
+    for (CustomerTask customerTask : incompleteTasks) {
+      add(toInFlightTask(customerTask, lockHolders.containsKey(customerTask.getTaskUUID())));
+    }
+    Map<UUID, UUID> failedTaskUUIDs = new HashMap<>();
+    for (SqlRow row : DB.sqlQuery(BROKEN_UNIVERSES_QUERY).findList()) {
+      failedTaskUUIDs.put(
+          row.getUUID("universe_uuid"), row.getUUID("placement_modification_task_uuid"));
+    }
+    Map<UUID, TaskType> failedTaskTypes = new HashMap<>();
+    if (!failedTaskUUIDs.isEmpty()) {
+      for (CustomerTask failedTask :
+          CustomerTask.find
+              .query()
+              .where()
+              .in("task_uuid", new HashSet<>(failedTaskUUIDs.values()))
+              .findList()) {
+        failedTaskTypes.put(failedTask.getTaskUUID(), failedTask.getType());
+      }
+    }
+    failedTaskUUIDs.forEach(
+        (universeUUID, failedTaskUUID) -> {
+          TaskType failedTaskType = failedTaskTypes.get(failedTaskUUID);
+          if (failedTaskType != null) {
+            targets.compute(
+                universeUUID,
+                (k, state) ->
+                    (state == null ? TargetState.EMPTY : state)
+                        .withFailedTask(failedTaskUUID, failedTaskType));
+          }
+        });
+    int dropped = 0;
+    for (CustomerTask customerTask : incompleteTasks) {
+      if (!isRunning.test(customerTask.getTaskUUID())) {
+        complete(customerTask.getTaskUUID(), State.Failure);
+        dropped++;
+      }
+    }
+    log.info(
+        "Rebuilt the in-flight task registry with {} tasks on {} targets, dropped {} stale tasks",
+        taskTargets.size(),
+        targets.size(),
+        dropped);
+  }
+
+  /**
+   * Checks that the task may start on its target and registers it as in flight.
+   *
+   * @param lockTarget true if the task takes the lock on the target.
+   * @throws PlatformServiceException if the task is not allowed to start.
+   */
+  public InFlightTask register(CustomerTask customerTask, boolean lockTarget) {
+    return register(customerTask, lockTarget, null);
+  }
+
+  /**
+   * Checks that the task may start on its target and registers it as in flight.
+   *
+   * @param lockTarget true if the task takes the lock on the target.
+   * @param retriedTaskUUID the task that this task retries, or null if it is not a retry.
+   * @throws PlatformServiceException if the task is not allowed to start.
+   */
+  public InFlightTask register(
+      CustomerTask customerTask, boolean lockTarget, @Nullable UUID retriedTaskUUID) {
+    InFlightTask inFlightTask = toInFlightTask(customerTask, lockTarget);
+    targets.compute(
+        inFlightTask.getTargetUUID(),
+        (k, state) -> {
+          TargetState current = state == null ? TargetState.EMPTY : state;
+          checkAllowed(current, inFlightTask, retriedTaskUUID);
+          return current.withTask(inFlightTask);
+        });
+    taskTargets.put(inFlightTask.getTaskUUID(), inFlightTask.getTargetUUID());
+    return inFlightTask;
+  }
+
+  /** Registers the task and completes it in the registry when the executor finishes it. */
+  public InFlightTask register(
+      CustomerTask customerTask,
+      boolean lockTarget,
+      @Nullable UUID retriedTaskUUID,
+      RunnableTask runnableTask) {
+    InFlightTask inFlightTask = register(customerTask, lockTarget, retriedTaskUUID);
+    runnableTask.getCompletion().thenAccept(state -> complete(inFlightTask.getTaskUUID(), state));
+    return inFlightTask;
+  }
+
+  /** Removes the task from its target and records the outcome of a placement modification. */
+  public void complete(UUID taskUUID, State state) {
+    UUID targetUUID = taskTargets.remove(taskUUID);
+    if (targetUUID == null) {
+      return;
+    }
+    targets.computeIfPresent(
+        targetUUID,
+        (k, current) -> {
+          Optional<InFlightTask> task =
+              current.getTasks().stream().filter(t -> t.getTaskUUID().equals(taskUUID)).findFirst();
+          if (!task.isPresent()) {
+            return current;
+          }
+          TargetState updated =
+              current.withTasks(
+                  current.getTasks().stream()
+                      .filter(t -> !t.getTaskUUID().equals(taskUUID))
+                      .collect(ImmutableList.toImmutableList()));
+          TaskType taskType = task.get().getTaskType();
+          if (UniverseTaskBase.isPlacementModificationTask(taskType)) {
+            if (state == State.Success) {
+              updated = updated.withFailedTask(null, null);
+            } else if (TaskInfo.ERROR_STATES.contains(state)) {
+              updated = updated.withFailedTask(taskUUID, taskType);
+            }
+          }
+          return updated.isEmpty() ? null : updated;
+        });
+  }
+
+  /** Sets whether the task holds the lock on its target. */
+  public void markLocked(UUID taskUUID, boolean locked) {
+    UUID targetUUID = taskTargets.get(taskUUID);
+    if (targetUUID == null) {
+      return;
+    }
+    targets.computeIfPresent(
+        targetUUID,
+        (k, current) ->
+            current.withTasks(
+                current.getTasks().stream()
+                    .map(t -> t.getTaskUUID().equals(taskUUID) ? t.withLocked(locked) : t)
+                    .collect(ImmutableList.toImmutableList())));
+  }
+
+  /** Same as {@link CustomerTask#maybeGetIdenticalIncompleteTaskUUID} without the query. */
+  public Optional<UUID> maybeGetIdenticalIncompleteTaskUUID(
+      UUID customerUUID, UUID targetUUID, TaskType taskType, TargetType targetType) {
+    TargetState state = targets.getOrDefault(targetUUID, TargetState.EMPTY);
+    return findIdentical(state, customerUUID, taskType, targetType).map(InFlightTask::getTaskUUID);
+  }
+
+  public boolean isLocked(UUID targetUUID) {
+    return targets.getOrDefault(targetUUID, TargetState.EMPTY).getLockHolder().isPresent();
+  }
+
+  public List<InFlightTask> getInFlightTasks(UUID targetUUID) {
+    return targets.getOrDefault(targetUUID, TargetState.EMPTY).getTasks();
+  }
+
+  /** Returns the failed placement modification task that restricts the tasks on the target. */
+  public Optional<UUID> getFailedTaskUUID(UUID targetUUID) {
+    return Optional.ofNullable(
+        targets.getOrDefault(targetUUID, TargetState.EMPTY).getFailedTaskUUID());
+  }
+
+  private static void checkAllowed(
+      TargetState state, InFlightTask task, @Nullable UUID retriedTaskUUID) {
+    findIdentical(state, task.getCustomerUUID(), task.getTaskType(), task.getTargetType())
+        .ifPresent(
+            identical -> {
+              throw new PlatformServiceException(
+                  BAD_REQUEST,
+                  String.format(
+                      "Task %s is already running on %s %s",
+                      task.getTaskType(), task.getTargetType(), task.getTargetUUID()));
+            });
+    if (task.isLocked()) {
+      state
+          .getLockHolder()
+          .ifPresent(
+              holder -> {
+                throw new PlatformServiceException(
+                    BAD_REQUEST,
+                    String.format(
+                        "%s %s is locked by task %s (%s)",
+                        task.getTargetType(),
+                        task.getTargetUUID(),
+                        holder.getTaskType(),
+                        holder.getTaskUUID()));
+              });
+    }
+    TaskType failedTaskType = state.getFailedTaskType();
+    // A retry of the failed task is admitted whether or not its type can be rerun with new params.
+    boolean isRetry =
+        retriedTaskUUID != null
+            && retriedTaskUUID.equals(state.getFailedTaskUUID())
+            && task.getTaskType() == failedTaskType;
+    if (!isRetry
+        && UniverseTaskBase.getAdmission(failedTaskType, task.getTaskType())
+            == UniverseTaskBase.Admission.RESTRICTED) {
+      throw new PlatformServiceException(
+          BAD_REQUEST,
+          String.format(
+              "Task %s is not allowed on %s %s until the failed task %s (%s) is retried",
+              task.getTaskType(),
+              task.getTargetType(),
+              task.getTargetUUID(),
+              failedTaskType,
+              state.getFailedTaskUUID()));
+    }
+  }
+
+  private static Optional<InFlightTask> findIdentical(
+      TargetState state, UUID customerUUID, TaskType taskType, TargetType targetType) {
+    return state.getTasks().stream()
+        .filter(
+            t ->
+                t.getTaskType() == taskType
+                    && t.getTargetType() == targetType
+                    && Objects.equals(t.getCustomerUUID(), customerUUID))
+        .findFirst();
+  }
+
+  private void add(InFlightTask task) {
+    targets.compute(
+        task.getTargetUUID(),
+        (k, state) -> {
+          TargetState current = state == null ? TargetState.EMPTY : state;
+          return current.withTask(task);
+        });
+    taskTargets.put(task.getTaskUUID(), task.getTargetUUID());
+  }
+
+  private static InFlightTask toInFlightTask(CustomerTask customerTask, boolean locked) {
+    return new InFlightTask(
+        customerTask.getTaskUUID(),
+        customerTask.getCustomerUUID(),
+        customerTask.getTargetUUID(),
+        customerTask.getTargetType(),
+        customerTask.getType(),
+        locked);
+  }
+}
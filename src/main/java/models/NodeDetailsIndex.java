@@ -0,0 +1,113 @@
+package models;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import models.NodeDetails.NodeState;
+
+/**
+ * Immutable lookup index over the nodes of a parsed universe, so that finding nodes by name, UUID,
+ * AZ, placement or state does not scan the node set. It reflects the nodes at the time it was built
+ * and is rebuilt by UniverseDefinitionTaskParams after nodes are added to or removed from the
+ * {@link NodeDetailsSet}.
+ */
+public final class NodeDetailsIndex {
+
+  private static final BitSet EMPTY_BITS = new BitSet();
+
+  private final NodeDetails[] nodes;
+  private final Map<String, NodeDetails> byName;
+  private final Map<UUID, NodeDetails> byUuid;
+  private final ImmutableListMultimap<UUID, NodeDetails> byAzUuid;
+  private final ImmutableListMultimap<UUID, NodeDetails> byPlacementUuid;
+  // Positions in nodes of the nodes in each state.
+  private final EnumMap<NodeState, BitSet> byState = new EnumMap<>(NodeState.class);
+
+  NodeDetailsIndex(Collection<NodeDetails> nodeDetails) {
+    this.nodes = nodeDetails.toArray(new NodeDetails[0]);
+    ImmutableMap.Builder<String, NodeDetails> byName = ImmutableMap.builder();
+    ImmutableMap.Builder<UUID, NodeDetails> byUuid = ImmutableMap.builder();
+    ImmutableListMultimap.Builder<UUID, NodeDetails> byAzUuid = ImmutableListMultimap.builder();
+    ImmutableListMultimap.Builder<UUID, NodeDetails> byPlacementUuid =
+        ImmutableListMultimap.builder();
+    for (int i = 0; i < nodes.length; i++) {
+      NodeDetails node = nodes[i];
+      if (node.nodeName != null) {
+        byName.put(node.nodeName, node);
+      }
+      if (node.nodeUuid != null) {
+        byUuid.put(node.nodeUuid, node);
+      }
+      if (node.azUuid != null) {
+        byAzUuid.put(node.azUuid, node);
+      }
+      if (node.placementUuid != null) {
+        byPlacementUuid.put(node.placementUuid, node);
+      }
+      if (node.state != null) {
+        byState.computeIfAbsent(node.state, s -> new BitSet(nodes.length)).set(i);
+      }
+    }
+    // Node names and UUIDs are unique within a universe. Keep the last one if they are not.
+    this.byName = byName.buildKeepingLast();
+    this.byUuid = byUuid.buildKeepingLast();
+    this.byAzUuid = byAzUuid.build();
+    this.byPlacementUuid = byPlacementUuid.build();
+  }
+
+  public int size() {
+    return nodes.length;
+  }
+
+  @Nullable
+  public NodeDetails getByName(String nodeName) {
+    return byName.get(nodeName);
+  }
+
+  @Nullable
+  public NodeDetails getByUuid(UUID nodeUuid) {
+    return byUuid.get(nodeUuid);
+  }
+
+  public ImmutableList<NodeDetails> getInAz(UUID azUuid) {
+    return byAzUuid.get(azUuid);
+  }
+
+  /** Nodes for which {@link NodeDetails#isInPlacement(UUID)} is true. */
+  public ImmutableList<NodeDetails> getInPlacement(UUID placementUuid) {
+    return byPlacementUuid.get(placementUuid);
+  }
+
+  public int countInState(NodeState state) {
+    return byState.getOrDefault(state, EMPTY_BITS).cardinality();
+  }
+
+  public boolean anyInState(NodeState state) {
+    return !byState.getOrDefault(state, EMPTY_BITS).isEmpty();
+  }
+
+  public void forEachInState(NodeState state, Consumer<NodeDetails> action) {
+    BitSet bits = byState.getOrDefault(state, EMPTY_BITS);
+    for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+      action.accept(nodes[i]);
+    }
+  }
+
+  public List<NodeDetails> getInState(NodeState state) {
+    BitSet bits = byState.getOrDefault(state, EMPTY_BITS);
+    ImmutableList.Builder<NodeDetails> result =
+        ImmutableList.builderWithExpectedSize(bits.cardinality());
+    for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+      result.add(nodes[i]);
+    }
+    return result.build();
+  }
+}
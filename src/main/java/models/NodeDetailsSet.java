@@ -0,0 +1,92 @@
+package models;
+
+import com.google.common.collect.ForwardingIterator;
+import com.google.common.collect.ForwardingSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Set of the nodes of a universe that counts its structural modifications, so that the {@link
+ * NodeDetailsIndex} built over it can tell when it is outdated. Changes of the fields of the nodes
+ * in place are not counted.
+ */
+public final class NodeDetailsSet extends ForwardingSet<NodeDetails> {
+
+  private final Set<NodeDetails> delegate;
+
+  private volatile int modCount;
+
+  public NodeDetailsSet() {
+    this.delegate = new HashSet<>();
+  }
+
+  public NodeDetailsSet(Collection<NodeDetails> nodes) {
+    this.delegate = new HashSet<>(nodes);
+  }
+
+  @Override
+  protected Set<NodeDetails> delegate() {
+    return delegate;
+  }
+
+  int getModCount() {
+    return modCount;
+  }
+
+  @Override
+  public boolean add(NodeDetails node) {
+    return modified(delegate.add(node));
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends NodeDetails> nodes) {
+    return modified(delegate.addAll(nodes));
+  }
+
+  @Override
+  public boolean remove(Object node) {
+    return modified(delegate.remove(node));
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> nodes) {
+    return modified(delegate.removeAll(nodes));
+  }
+
+  @Override
+  public boolean retainAll(Collection<?> nodes) {
+    return modified(delegate.retainAll(nodes));
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    modCount++;
+  }
+
+  @Override
+  public Iterator<NodeDetails> iterator() {
+    Iterator<NodeDetails> iterator = delegate.iterator();
+    return new ForwardingIterator<NodeDetails>() {
+      @Override
+      protected Iterator<NodeDetails> delegate() {
+        return iterator;
+      }
+
+      @Override
+      public void remove() {
+        iterator.remove();
+        modCount++;
+      }
+    };
+  }
+
+  private boolean modified(boolean modified) {
+    if (modified) {
+      modCount++;
+    }
+    return modified;
+  }
+}
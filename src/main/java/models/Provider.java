@@ -76,6 +76,11 @@ public class Provider extends Model {
   public static final Set<CloudType> InstanceTagsModificationEnabledProviders =
           ImmutableSet.of(CloudType.aws, CloudType.gcp, CloudType.local);
 
+  public static final Finder<UUID, Provider> find = new Finder<UUID, Provider>(Provider.class) {};
+
+  public static Optional<Provider> maybeGet(UUID providerUUID) {
+    return Optional.ofNullable(find.byId(providerUUID));
+  }
 
   @ApiModelProperty(
           value =
@@ -2,23 +2,40 @@ package models;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static play.mvc.Http.Status.BAD_REQUEST;
 import static play.mvc.Http.Status.INTERNAL_SERVER_ERROR;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.api.client.util.Throwables;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Provider;
+import config.GlobalConfKeys;
+import config.RuntimeConfGetter;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.Summary;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.InetAddress;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -27,11 +44,13 @@ import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -51,10 +70,13 @@ import javax.inject.Singleton;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import models.CustomerTask.TaskType;
+import models.TaskInfo.State;
+import models.UserTaskDetails.SubTaskGroupType;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import play.libs.Json;
-import models.CustomerTask.TaskType;
+
 /**
  * TaskExecutor is the executor service for tasks and their subtasks. It is very similar to the
  * current SubTaskGroupQueue and SubTaskGroup.
@@ -106,15 +128,21 @@ import models.CustomerTask.TaskType;
  *   runnableTask.runSubTasks();
  * }
  * </pre>
+ *
+ * <p>Independent groups, e.g. the configuration of different clusters, can overlap by running the
+ * task in DAG mode and declaring the dependencies of each group.
+ *
+ * <pre>
+ * runnableTask.setDagMode(true);
+ * configurePrimary.dependsOn(provisionPrimary);
+ * configureReadReplica.dependsOn(provisionReadReplica);
+ * </pre>
  */
 @Singleton
 @Slf4j
 public class TaskExecutor {
 
 
-  // Task futures are waited for this long before checking abort status.
-  private static final long TASK_SPIN_WAIT_INTERVAL_MS = 2000;
-
   // Max size of the callstack for task creator thread.
   private static final int MAX_TASK_CREATOR_CALLSTACK_SIZE = 15;
 
@@ -132,4 +160,666 @@ public class TaskExecutor {
   private static final String COMMISSIONER_TASK_EXECUTION_SEC_METRIC =
           "ybp_commissioner_task_execution_sec";
 
+  private static final Summary COMMISSIONER_TASK_WAITING_SEC =
+      Summary.build(
+              COMMISSIONER_TASK_WAITING_SEC_METRIC, "Duration between task creation and execution")
+          .labelNames("task_type")
+          .register(CollectorRegistry.defaultRegistry);
+
+  private static final Summary COMMISSIONER_TASK_EXECUTION_SEC =
+      Summary.build(COMMISSIONER_TASK_EXECUTION_SEC_METRIC, "Duration of task execution")
+          .labelNames("task_type", "result")
+          .register(CollectorRegistry.defaultRegistry);
+
+  private final RuntimeConfGetter confGetter;
+
+  private final TaskInfoWriter taskInfoWriter;
+
+  private final TaskProgressEventBus progressEventBus;
+
+  private final InFlightTaskRegistry inFlightTaskRegistry;
+
+  // Tasks that are submitted and not yet completed.
+  private final Map<UUID, RunnableTask> runnableTasks = new ConcurrentHashMap<>();
+
+  // Executor for subtask groups in virtual thread mode. Null if the JVM has no virtual threads.
+  @Nullable private final ExecutorService virtualThreadExecutor;
+
+  // Runs the subtask groups of the tasks in DAG mode, each of which waits for its subtasks.
+  private final ExecutorService dagGroupExecutor;
+
+  private final String owner;
+
+  @Inject
+  public TaskExecutor(
+      RuntimeConfGetter confGetter,
+      TaskInfoWriter taskInfoWriter,
+      TaskProgressEventBus progressEventBus,
+      InFlightTaskRegistry inFlightTaskRegistry) {
+    this.confGetter = confGetter;
+    this.taskInfoWriter = taskInfoWriter;
+    this.progressEventBus = progressEventBus;
+    this.inFlightTaskRegistry = inFlightTaskRegistry;
+    this.virtualThreadExecutor = maybeCreateVirtualThreadExecutor();
+    this.dagGroupExecutor =
+        virtualThreadExecutor != null
+            ? virtualThreadExecutor
+            : Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder()
+                    .setNameFormat("subtask-group-%d")
+                    .setDaemon(true)
+                    .build());
+    this.owner = getOwnerName();
+  }
+
+  // Virtual threads are only available from Java 21, so the factory method is looked up at runtime.
+  @Nullable
+  private static ExecutorService maybeCreateVirtualThreadExecutor() {
+    try {
+      return (ExecutorService)
+          MethodHandles.publicLookup()
+              .findStatic(
+                  Executors.class,
+                  "newVirtualThreadPerTaskExecutor",
+                  MethodType.methodType(ExecutorService.class))
+              .invoke();
+    } catch (Throwable t) {
+      log.info("Virtual threads are not available, subtasks run on platform threads");
+      return null;
+    }
+  }
+
+  private static String getOwnerName() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (Exception e) {
+      return "unknown";
+    }
+  }
+
+  /** Creates a RunnableTask for the task. The task is not started until it is submitted. */
+  public RunnableTask createRunnableTask(TaskType taskType, ITask task) {
+    checkNotNull(task, "Task must be set");
+    TaskInfo taskInfo =
+        new TaskInfo(
+            UUID.randomUUID(),
+            null,
+            -1,
+            State.Created,
+            null,
+            null,
+            null,
+            0,
+            task.getTaskParams(),
+            owner);
+    taskInfo.save();
+    return new RunnableTask(taskType, task, taskInfo);
+  }
+
+  /**
+   * Registers the customer task in the {@link InFlightTaskRegistry}, which checks that it may start
+   * on its target, and submits it to run on the executor.
+   *
+   * @param lockTarget true if the task takes the lock on the target.
+   * @param retriedTaskUUID the task that this task retries, or null if it is not a retry.
+   * @throws PlatformServiceException if the task is not allowed to start.
+   */
+  public UUID submit(
+      CustomerTask customerTask,
+      boolean lockTarget,
+      @Nullable UUID retriedTaskUUID,
+      RunnableTask runnableTask,
+      ExecutorService taskExecutor) {
+    inFlightTaskRegistry.register(customerTask, lockTarget, retriedTaskUUID, runnableTask);
+    return submit(runnableTask, taskExecutor);
+  }
+
+  /** Submits the task to run on the executor and returns its UUID. */
+  public UUID submit(RunnableTask runnableTask, ExecutorService taskExecutor) {
+    checkState(!isShutdown.get(), "TaskExecutor is shut down");
+    UUID taskUUID = runnableTask.getTaskUUID();
+    runnableTasks.put(taskUUID, runnableTask);
+    runnableTask.executor = taskExecutor;
+    try {
+      runnableTask.future = taskExecutor.submit(runnableTask);
+    } catch (RejectedExecutionException e) {
+      runnableTasks.remove(taskUUID);
+      runnableTask.setState(State.Failure);
+      runnableTask.completion.complete(State.Failure);
+      throw new PlatformServiceException(
+          INTERNAL_SERVER_ERROR, "Task " + runnableTask.getTaskType() + " could not be submitted");
+    }
+    return taskUUID;
+  }
+
+  public Optional<RunnableTask> maybeGetRunnableTask(UUID taskUUID) {
+    return Optional.ofNullable(runnableTasks.get(taskUUID));
+  }
+
+  public RunnableTask getRunnableTask(UUID taskUUID) {
+    return maybeGetRunnableTask(taskUUID)
+        .orElseThrow(
+            () -> new PlatformServiceException(BAD_REQUEST, "Task " + taskUUID + " is not found"));
+  }
+
+  public boolean isTaskRunning(UUID taskUUID) {
+    return runnableTasks.containsKey(taskUUID);
+  }
+
+  /**
+   * Creates a group of subtasks that run concurrently.
+   *
+   * @param name the name of the group.
+   * @param subTaskGroupType the user facing type of the group.
+   * @param ignoreErrors if true, the failure of a subtask does not fail the task.
+   */
+  public SubTaskGroup createSubTaskGroup(
+      String name, SubTaskGroupType subTaskGroupType, boolean ignoreErrors) {
+    return new SubTaskGroup(name, subTaskGroupType, ignoreErrors);
+  }
+
+  public SubTaskGroup createSubTaskGroup(String name) {
+    return createSubTaskGroup(name, SubTaskGroupType.Configuring, false);
+  }
+
+  /**
+   * Signals the task to abort. The running subtask group stops waiting for its subtasks right
+   * away.
+   *
+   * @return true if the task is running and was signalled.
+   */
+  public boolean abort(UUID taskUUID) {
+    RunnableTask runnableTask = runnableTasks.get(taskUUID);
+    if (runnableTask == null) {
+      return false;
+    }
+    log.info("Aborting task {}", taskUUID);
+    runnableTask.abort();
+    return true;
+  }
+
+  public void shutdown(Duration timeout) {
+    if (isShutdown.compareAndSet(false, true)) {
+      log.info("Shutting down TaskExecutor, aborting {} tasks", runnableTasks.size());
+      runnableTasks.values().forEach(RunnableTask::abort);
+      // The DAG group executor is the virtual thread executor when virtual threads are available.
+      dagGroupExecutor.shutdown();
+      if (virtualThreadExecutor != null && virtualThreadExecutor != dagGroupExecutor) {
+        virtualThreadExecutor.shutdown();
+      }
+      long deadline = System.nanoTime() + timeout.toNanos();
+      try {
+        dagGroupExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (virtualThreadExecutor != null) {
+          virtualThreadExecutor.awaitTermination(
+              deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      taskInfoWriter.flush();
+    }
+  }
+
+  /** Abstract base of a task and its subtasks, with the TaskInfo that tracks it. */
+  @Getter
+  public abstract class AbstractRunnableTask implements Runnable {
+    private final ITask task;
+    private final TaskInfo taskInfo;
+
+    AbstractRunnableTask(ITask task, TaskInfo taskInfo) {
+      this.task = task;
+      this.taskInfo = taskInfo;
+    }
+
+    public UUID getTaskUUID() {
+      return taskInfo.getUuid();
+    }
+
+    // UUID of the top level task, which progress stream clients subscribe to.
+    abstract UUID getRootTaskUUID();
+
+    // Completed states are persisted right away, others are batched by the TaskInfoWriter.
+    void setState(State state) {
+      taskInfoWriter.updateState(taskInfo, state);
+      progressEventBus.publish(getRootTaskUUID(), taskInfo);
+    }
+
+    public void setPercentDone(int percentDone) {
+      taskInfoWriter.updateProgress(taskInfo, percentDone);
+      progressEventBus.publish(getRootTaskUUID(), taskInfo);
+    }
+
+    public void heartbeat() {
+      taskInfoWriter.heartbeat(taskInfo);
+    }
+  }
+
+  /** A submitted task. It runs its ITask, which adds and runs its subtask groups. */
+  public class RunnableTask extends AbstractRunnableTask {
+    @Getter private final TaskType taskType;
+    private final Instant createTime = Instant.now();
+    private final Queue<SubTaskGroup> subTaskGroups = new ConcurrentLinkedQueue<>();
+    // Completed when the task is aborted. Waiters are woken up instead of polling.
+    private final CompletableFuture<Void> abortSignal = new CompletableFuture<>();
+    private final AtomicInteger subTaskPosition = new AtomicInteger();
+    // Completed with the final state once the task has run.
+    private final CompletableFuture<State> completion = new CompletableFuture<>();
+    private volatile Future<?> future;
+    // The executor the task is submitted to, which also runs its subtasks by default.
+    private volatile ExecutorService executor;
+    private volatile boolean dagMode;
+    @Nullable private volatile JsonNode criticalPathDetails;
+
+    RunnableTask(TaskType taskType, ITask task, TaskInfo taskInfo) {
+      super(task, taskInfo);
+      this.taskType = taskType;
+    }
+
+    @Override
+    UUID getRootTaskUUID() {
+      return getTaskUUID();
+    }
+
+    @Override
+    public void run() {
+      Instant startTime = Instant.now();
+      COMMISSIONER_TASK_WAITING_SEC
+          .labels(taskType.name())
+          .observe(Duration.between(createTime, startTime).toMillis() / 1000.0);
+      State result = State.Failure;
+      try {
+        setState(State.Running);
+        getTask().run();
+        result = State.Success;
+      } catch (CancellationException e) {
+        log.warn("Task {} ({}) is aborted", taskType, getTaskUUID());
+        result = State.Aborted;
+      } catch (Exception e) {
+        log.error("Task {} ({}) failed", taskType, getTaskUUID(), e);
+        result = isAborted() ? State.Aborted : State.Failure;
+      } finally {
+        // Written along with the final state.
+        if (criticalPathDetails != null) {
+          getTaskInfo().setDetails(criticalPathDetails);
+        }
+        setState(result);
+        COMMISSIONER_TASK_EXECUTION_SEC
+            .labels(taskType.name(), result.name())
+            .observe(Duration.between(startTime, Instant.now()).toMillis() / 1000.0);
+        runnableTasks.remove(getTaskUUID());
+        completion.complete(result);
+      }
+    }
+
+    /** Returns a future that is completed with the final state of the task. */
+    public CompletableFuture<State> getCompletion() {
+      return completion;
+    }
+
+    public void addSubTaskGroup(SubTaskGroup subTaskGroup) {
+      subTaskGroups.add(subTaskGroup);
+    }
+
+    /**
+     * Runs the subtask groups as a DAG. A group starts as soon as all the groups it depends on have
+     * completed, instead of after the group added before it, and groups without dependencies start
+     * right away. The critical path of the run is reported in the task details.
+     */
+    public RunnableTask setDagMode(boolean dagMode) {
+      this.dagMode = dagMode;
+      return this;
+    }
+
+    /** Runs the subtask groups in the order they were added, or by dependencies in DAG mode. */
+    public void runSubTasks() {
+      if (dagMode) {
+        runSubTaskGroupDag();
+        return;
+      }
+      SubTaskGroup subTaskGroup;
+      while ((subTaskGroup = subTaskGroups.poll()) != null) {
+        if (isAborted()) {
+          throw new CancellationException("Task " + getTaskUUID() + " is aborted");
+        }
+        subTaskGroup.run(this);
+      }
+    }
+
+    private void runSubTaskGroupDag() {
+      List<SubTaskGroup> groups = new ArrayList<>();
+      SubTaskGroup subTaskGroup;
+      while ((subTaskGroup = subTaskGroups.poll()) != null) {
+        groups.add(subTaskGroup);
+      }
+      AtomicReference<RuntimeException> failure = new AtomicReference<>();
+      Map<SubTaskGroup, CompletableFuture<Void>> groupFutures = new HashMap<>();
+      for (SubTaskGroup group : sortByDependencies(groups)) {
+        CompletableFuture<?>[] dependencyFutures =
+            group.dependencies.stream().map(groupFutures::get).toArray(CompletableFuture<?>[]::new);
+        groupFutures.put(
+            group,
+            CompletableFuture.allOf(dependencyFutures)
+                .thenRunAsync(
+                    () -> {
+                      // Groups that did not start yet are skipped after a failure.
+                      if (failure.get() != null || isAborted()) {
+                        return;
+                      }
+                      try {
+                        group.run(this);
+                      } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                      }
+                    },
+                    dagGroupExecutor));
+      }
+      CompletableFuture.allOf(groupFutures.values().toArray(new CompletableFuture<?>[0])).join();
+      criticalPathDetails = getCriticalPathDetails(groups);
+      if (failure.get() != null) {
+        throw failure.get();
+      }
+      if (isAborted()) {
+        throw new CancellationException("Task " + getTaskUUID() + " is aborted");
+      }
+    }
+
+    public boolean isAborted() {
+      return abortSignal.isDone();
+    }
+
+    void abort() {
+      // Signalled first so that the waiters are woken up even if onAbort throws.
+      abortSignal.complete(null);
+      getTask().onAbort();
+    }
+
+    int nextSubTaskPosition() {
+      return subTaskPosition.getAndIncrement();
+    }
+  }
+
+  /** A subtask of a RunnableTask. */
+  public class RunnableSubTask extends AbstractRunnableTask {
+    private final RunnableTask parent;
+
+    RunnableSubTask(RunnableTask parent, ITask task, TaskInfo taskInfo) {
+      super(task, taskInfo);
+      this.parent = parent;
+    }
+
+    @Override
+    UUID getRootTaskUUID() {
+      return parent.getTaskUUID();
+    }
+
+    @Override
+    public void run() {
+      if (parent.isAborted()) {
+        setState(State.Aborted);
+        throw new CancellationException("Task " + parent.getTaskUUID() + " is aborted");
+      }
+      setState(State.Running);
+      try {
+        getTask().run();
+        setState(State.Success);
+      } catch (RuntimeException e) {
+        setState(parent.isAborted() ? State.Aborted : State.Failure);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * A subtask submitted to the executor of its group. It can be cancelled before it starts, or
+   * interrupted while it runs.
+   */
+  private static final class SubTaskRun implements Runnable {
+    private final RunnableSubTask runnableSubTask;
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    // Set by whichever of run and cancel comes first.
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile Future<?> future;
+
+    SubTaskRun(RunnableSubTask runnableSubTask) {
+      this.runnableSubTask = runnableSubTask;
+    }
+
+    void submit(ExecutorService executor) {
+      future = executor.submit(this);
+    }
+
+    @Override
+    public void run() {
+      if (!started.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        runnableSubTask.run();
+        completion.complete(null);
+      } catch (Throwable t) {
+        completion.completeExceptionally(t);
+      }
+    }
+
+    void cancel() {
+      if (started.compareAndSet(false, true)) {
+        // Never runs, so it completes right away.
+        future.cancel(false);
+        runnableSubTask.setState(State.Aborted);
+        completion.completeExceptionally(
+            new CancellationException(
+                "Task " + runnableSubTask.getRootTaskUUID() + " is aborted"));
+      } else {
+        // Completes once the subtask stops on the interrupt.
+        future.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * A group of subtasks that run concurrently. The group completes when all of its subtasks
+   * complete. By default the subtasks run on the executor of the parent task. In virtual thread
+   * mode, each subtask runs on its own virtual thread, which suits subtasks that mostly block on
+   * SSH, cloud API or node agent calls.
+   */
+  public class SubTaskGroup {
+    @Getter private final String name;
+    @Getter private final SubTaskGroupType subTaskGroupType;
+    private final boolean ignoreErrors;
+    private final List<ITask> subTasks = new ArrayList<>();
+    // Groups that must complete before this group starts in DAG mode.
+    private final Set<SubTaskGroup> dependencies = new LinkedHashSet<>();
+    @Nullable private volatile Instant startTime;
+    @Nullable private volatile Instant endTime;
+    // Overrides the runtime config for virtual thread mode if set.
+    @Nullable private Boolean useVirtualThreads;
+    @Nullable private ExecutorService subTaskExecutor;
+
+    SubTaskGroup(String name, SubTaskGroupType subTaskGroupType, boolean ignoreErrors) {
+      this.name = name;
+      this.subTaskGroupType = subTaskGroupType;
+      this.ignoreErrors = ignoreErrors;
+    }
+
+    /** Declares groups that must complete before this group starts, when run in DAG mode. */
+    public SubTaskGroup dependsOn(SubTaskGroup... subTaskGroups) {
+      dependencies.addAll(Arrays.asList(subTaskGroups));
+      return this;
+    }
+
+    public SubTaskGroup addSubTask(ITask subTask) {
+      subTasks.add(subTask);
+      return this;
+    }
+
+    public int getSubTaskCount() {
+      return subTasks.size();
+    }
+
+    public SubTaskGroup setUseVirtualThreads(boolean useVirtualThreads) {
+      this.useVirtualThreads = useVirtualThreads;
+      return this;
+    }
+
+    /**
+     * Sets the platform executor for the subtasks when not in virtual thread mode, instead of the
+     * executor of the parent task.
+     */
+    public SubTaskGroup setSubTaskExecutor(ExecutorService subTaskExecutor) {
+      this.subTaskExecutor = subTaskExecutor;
+      return this;
+    }
+
+    private ExecutorService resolveExecutor(RunnableTask parent) {
+      boolean virtual =
+          useVirtualThreads != null
+              ? useVirtualThreads
+              : confGetter.getGlobalConf(GlobalConfKeys.useVirtualThreadsForSubTasks);
+      if (virtual && virtualThreadExecutor != null) {
+        return virtualThreadExecutor;
+      }
+      if (subTaskExecutor != null) {
+        return subTaskExecutor;
+      }
+      checkState(parent.executor != null, "No executor is set for subtask group %s", name);
+      return parent.executor;
+    }
+
+    void run(RunnableTask parent) {
+      startTime = Instant.now();
+      try {
+        runSubTasks(parent);
+      } finally {
+        endTime = Instant.now();
+      }
+    }
+
+    private void runSubTasks(RunnableTask parent) {
+      if (subTasks.isEmpty()) {
+        return;
+      }
+      ExecutorService executor = resolveExecutor(parent);
+      List<SubTaskRun> runs = new ArrayList<>(subTasks.size());
+      for (ITask subTask : subTasks) {
+        TaskInfo taskInfo =
+            new TaskInfo(
+                UUID.randomUUID(),
+                parent.getTaskUUID(),
+                parent.nextSubTaskPosition(),
+                State.Created,
+                subTaskGroupType,
+                null,
+                null,
+                0,
+                subTask.getTaskParams(),
+                owner);
+        taskInfo.save();
+        SubTaskRun run = new SubTaskRun(new RunnableSubTask(parent, subTask, taskInfo));
+        run.submit(executor);
+        runs.add(run);
+      }
+      List<CompletableFuture<Void>> futures =
+          runs.stream().map(run -> run.completion).collect(Collectors.toList());
+      CompletableFuture<Void> allDone =
+          CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+      // Wake up on completion of all the subtasks or on abort, whichever comes first.
+      CompletableFuture.anyOf(allDone, parent.abortSignal).exceptionally(t -> null).join();
+      if (!allDone.isDone()) {
+        log.info(
+            "Task {} is aborted, waiting up to {} for subtasks of {}",
+            parent.getTaskUUID(),
+            defaultAbortTaskTimeout,
+            name);
+        runs.forEach(SubTaskRun::cancel);
+        try {
+          allDone.get(defaultAbortTaskTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+          log.warn("Subtasks of {} did not complete after abort", name);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          // Reported below.
+        }
+        throw new CancellationException("Task " + parent.getTaskUUID() + " is aborted");
+      }
+      Optional<Throwable> failure =
+          futures.stream()
+              .filter(CompletableFuture::isCompletedExceptionally)
+              .map(f -> f.handle((r, t) -> t).join())
+              .findFirst();
+      if (failure.isPresent() && !ignoreErrors) {
+        Throwable cause = ExceptionUtils.getRootCause(failure.get());
+        if (cause instanceof CancellationException) {
+          throw (CancellationException) cause;
+        }
+        throw new RuntimeException("Failed to execute subtask group " + name, cause);
+      }
+    }
+  }
+
+  // Orders the groups so that every group comes after the groups it depends on.
+  private static List<SubTaskGroup> sortByDependencies(List<SubTaskGroup> groups) {
+    Set<SubTaskGroup> pending = new LinkedHashSet<>(groups);
+    List<SubTaskGroup> sorted = new ArrayList<>(groups.size());
+    Set<SubTaskGroup> done = new HashSet<>();
+    while (!pending.isEmpty()) {
+      boolean progress = false;
+      for (Iterator<SubTaskGroup> it = pending.iterator(); it.hasNext(); ) {
+        SubTaskGroup group = it.next();
+        for (SubTaskGroup dependency : group.dependencies) {
+          checkState(
+              groups.contains(dependency),
+              "Subtask group %s depends on group %s which is not added to the task",
+              group.getName(),
+              dependency.getName());
+        }
+        if (done.containsAll(group.dependencies)) {
+          sorted.add(group);
+          done.add(group);
+          it.remove();
+          progress = true;
+        }
+      }
+      checkState(
+          progress,
+          "Subtask groups %s have cyclic dependencies",
+          pending.stream().map(SubTaskGroup::getName).collect(Collectors.toList()));
+    }
+    return sorted;
+  }
+
+  // The chain of groups that determined the duration of a DAG run. It ends at the group that
+  // completed last and goes back through the dependency of each group that completed last.
+  private static JsonNode getCriticalPathDetails(List<SubTaskGroup> groups) {
+    List<SubTaskGroup> path = new ArrayList<>();
+    SubTaskGroup current = latestCompleted(groups);
+    while (current != null) {
+      path.add(current);
+      current = latestCompleted(current.dependencies);
+    }
+    Collections.reverse(path);
+    ObjectNode details = Json.newObject();
+    ArrayNode steps = details.putArray("criticalPath");
+    for (SubTaskGroup group : path) {
+      ObjectNode step = steps.addObject();
+      step.put("name", group.getName());
+      step.put("subTaskGroupType", group.getSubTaskGroupType().name());
+      step.put("durationMs", Duration.between(group.startTime, group.endTime).toMillis());
+    }
+    if (!path.isEmpty()) {
+      details.put(
+          "criticalPathMs",
+          Duration.between(path.get(0).startTime, path.get(path.size() - 1).endTime).toMillis());
+    }
+    return details;
+  }
+
+  @Nullable
+  private static SubTaskGroup latestCompleted(Collection<SubTaskGroup> groups) {
+    return groups.stream()
+        .filter(group -> group.startTime != null && group.endTime != null)
+        .max(Comparator.comparing((SubTaskGroup group) -> group.endTime))
+        .orElse(null);
+  }
 }
@@ -0,0 +1,222 @@
+package models;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import config.GlobalConfKeys;
+import config.RuntimeConfGetter;
+import io.ebean.DB;
+import io.ebean.SqlRow;
+import io.ebean.Transaction;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Maintains the monthly partitions of the task history tables, customer_task and task_info. The
+ * partitions of the coming months are created ahead of time, and the partitions of the months past
+ * the retention are dropped as a whole. A month is only dropped once none of its tasks is still
+ * incomplete, and it is dropped from both tables together. The subtasks created in a later month
+ * than their parent task are deleted along with it, and so are the task_info_key rows of the month.
+ */
+@Singleton
+@Slf4j
+public class TaskHistoryRetention {
+
+  private static final long RUN_INTERVAL_HOURS = 6;
+
+  // Number of months after the current one to create the partitions for.
+  private static final int MONTHS_AHEAD = 3;
+
+  private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+
+  // Partitioned table to the condition matching its incomplete rows.
+  private static final Map<String, String> TABLES =
+      ImmutableMap.of(
+          "customer_task", "completion_time is null",
+          "task_info",
+          TaskInfo.INCOMPLETE_STATES.stream()
+              .map(state -> "'" + state.name() + "'")
+              .collect(Collectors.joining(", ", "task_state in (", ")")));
+
+  private static final String LIST_PARTITIONS =
+      "select c.relname as name from pg_inherits i"
+          + " join pg_class c on c.oid = i.inhrelid"
+          + " join pg_class p on p.oid = i.inhparent"
+          + " where p.relname = :parent";
+
+  // Subtasks in later months of the tasks of a month partition, formatted with the partition name.
+  private static final String DELETE_LATER_SUBTASKS =
+      "with recursive purged as ("
+          + " select uuid from %s"
+          + " union"
+          + " select t.uuid from task_info t join purged on t.parent_uuid = purged.uuid"
+          + " where t.create_time >= :monthEnd"
+          + ") delete from task_info where create_time >= :monthEnd"
+          + " and uuid in (select uuid from purged)";
+
+  private static final String DELETE_KEYS =
+      "delete from task_info_key where create_time >= :monthStart and create_time < :monthEnd";
+
+  private final RuntimeConfGetter confGetter;
+
+  private final AtomicBoolean started = new AtomicBoolean();
+
+  private volatile ScheduledExecutorService executor;
+
+  @Inject
+  public TaskHistoryRetention(RuntimeConfGetter confGetter) {
+    this.confGetter = confGetter;
+  }
+
+  public void start() {
+    if (!started.compareAndSet(false, true)) {
+      return;
+    }
+    executor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("task-history-retention")
+                .setDaemon(true)
+                .build());
+    executor.scheduleWithFixedDelay(
+        () -> {
+          try {
+            run();
+          } catch (Exception e) {
+            log.error("Task history retention failed", e);
+          }
+        },
+        0,
+        RUN_INTERVAL_HOURS,
+        TimeUnit.HOURS);
+  }
+
+  public void shutdown() {
+    ScheduledExecutorService current = executor;
+    if (current != null) {
+      current.shutdownNow();
+    }
+  }
+
+  public void run() {
+    YearMonth currentMonth = YearMonth.now(ZoneOffset.UTC);
+    createPartitions(currentMonth, currentMonth.plusMonths(MONTHS_AHEAD));
+    Duration retention = confGetter.getGlobalConf(GlobalConfKeys.taskHistoryRetention);
+    int dropped = dropExpiredPartitions(Instant.now().minus(retention));
+    if (dropped > 0) {
+      log.info("Dropped {} expired task history partitions", dropped);
+    }
+  }
+
+  @VisibleForTesting
+  void createPartitions(YearMonth fromMonth, YearMonth toMonth) {
+    for (String table : TABLES.keySet()) {
+      try {
+        DB.sqlQuery("select create_task_history_partitions(:parent, :fromMonth, :toMonth)")
+            .setParameter("parent", table)
+            .setParameter("fromMonth", java.sql.Date.valueOf(fromMonth.atDay(1)))
+            .setParameter("toMonth", java.sql.Date.valueOf(toMonth.atDay(1)))
+            .findOne();
+      } catch (Exception e) {
+        log.error("Failed to create the partitions of {} up to {}", table, toMonth, e);
+      }
+    }
+  }
+
+  /**
+   * Drops the months that ended before the cutoff. A month is skipped if any task created in it is
+   * still incomplete.
+   *
+   * @return the number of partitions dropped.
+   */
+  @VisibleForTesting
+  int dropExpiredPartitions(Instant cutoff) {
+    YearMonth cutoffMonth = YearMonth.from(LocalDate.ofInstant(cutoff, ZoneOffset.UTC));
+    int dropped = 0;
+    for (YearMonth month : listPartitionMonths("customer_task")) {
+      // The month must have ended before the cutoff.
+      if (!month.isBefore(cutoffMonth)) {
+        continue;
+      }
+      if (hasIncompleteRows(month)) {
+        log.warn("Keeping task history of {} as it has incomplete tasks", month);
+        continue;
+      }
+      dropMonth(month);
+      dropped += TABLES.size();
+      log.info("Dropped task history of {}", month);
+    }
+    return dropped;
+  }
+
+  private void dropMonth(YearMonth month) {
+    java.sql.Date monthStart = java.sql.Date.valueOf(month.atDay(1));
+    java.sql.Date monthEnd = java.sql.Date.valueOf(month.plusMonths(1).atDay(1));
+    try (Transaction transaction = DB.beginTransaction()) {
+      DB.sqlUpdate(String.format(DELETE_LATER_SUBTASKS, partitionName("task_info", month)))
+          .setParameter("monthEnd", monthEnd)
+          .execute();
+      for (String table : TABLES.keySet()) {
+        DB.sqlUpdate("drop table if exists " + partitionName(table, month)).execute();
+      }
+      DB.sqlUpdate(DELETE_KEYS)
+          .setParameter("monthStart", monthStart)
+          .setParameter("monthEnd", monthEnd)
+          .execute();
+      transaction.commit();
+    }
+  }
+
+  private boolean hasIncompleteRows(YearMonth month) {
+    for (Map.Entry<String, String> entry : TABLES.entrySet()) {
+      String query =
+          String.format(
+              "select exists (select 1 from %s where %s) as incomplete",
+              partitionName(entry.getKey(), month), entry.getValue());
+      SqlRow row = DB.sqlQuery(query).findOne();
+      if (row != null && Boolean.TRUE.equals(row.getBoolean("incomplete"))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static List<YearMonth> listPartitionMonths(String table) {
+    String prefix = table + "_p";
+    List<YearMonth> months = new ArrayList<>();
+    for (SqlRow row : DB.sqlQuery(LIST_PARTITIONS).setParameter("parent", table).findList()) {
+      String name = row.getString("name");
+      if (!name.startsWith(prefix)) {
+        // The default partition.
+        continue;
+      }
+      try {
+        months.add(YearMonth.parse(name.substring(prefix.length()), PARTITION_SUFFIX));
+      } catch (DateTimeParseException e) {
+        log.warn("Ignoring unexpected task history partition {}", name);
+      }
+    }
+    months.sort(null);
+    return months;
+  }
+
+  private static String partitionName(String table, YearMonth month) {
+    return table + "_p" + month.format(PARTITION_SUFFIX);
+  }
+}
@@ -163,6 +163,13 @@ public class TaskInfo extends Model {
 
 
 
+  // Details of the task run, like the critical path of the subtask groups in DAG mode.
+  @Column(columnDefinition = "TEXT")
+  @DbJson
+  @ApiModelProperty(value = "Task details", accessMode = READ_ONLY)
+  @JsonProperty("details")
+  private JsonNode details;
+
   // Identifier of the process owning the task.
   @Constraints.Required
   @Column(nullable = false)
@@ -197,5 +204,11 @@ public class TaskInfo extends Model {
     this.taskParams = taskParams;
     this.owner = owner;
   }
-  
+
+  /** Loads this task and all of its subtasks with a single query. */
+  public TaskTree loadTaskTree() {
+    return TaskTree.load(uuid)
+        .orElseThrow(
+            () -> new PlatformServiceException(BAD_REQUEST, "Invalid Task Info UUID: " + uuid));
+  }
 }
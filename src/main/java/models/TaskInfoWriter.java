@@ -0,0 +1,182 @@
+package models;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.ebean.DB;
+import io.ebean.SqlUpdate;
+import io.ebean.Transaction;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+import models.TaskInfo.State;
+
+/**
+ * Write-behind buffer for the state, progress and heartbeat of the tasks. Updates are coalesced per
+ * task UUID, so only the latest values of a task are written, and the buffer is flushed in JDBC
+ * batches every {@link #FLUSH_INTERVAL_MS}. The in-memory TaskInfo is updated right away.
+ *
+ * <p>Transitions to one of the {@link TaskInfo#COMPLETED_STATES} are written synchronously. The
+ * buffered updates never overwrite a completed state, so a flush that races with the final write of
+ * a task cannot revive it.
+ */
+@Singleton
+@Slf4j
+public class TaskInfoWriter {
+
+  private static final long FLUSH_INTERVAL_MS = 500;
+
+  // Maximum number of updates sent in one JDBC batch.
+  private static final int MAX_BATCH_SIZE = 500;
+
+  private static final String UPDATE_TASK =
+      "update task_info set task_state = :taskState, percent_done = :percentDone,"
+          + " update_time = :updateTime where uuid = :uuid"
+          + " and create_time = (select create_time from task_info_key where uuid = :uuid)"
+          + TaskInfo.COMPLETED_STATES.stream()
+              .map(state -> "'" + state.name() + "'")
+              .collect(Collectors.joining(", ", " and task_state not in (", ")"));
+
+  private static final Counter TASK_INFO_UPDATES =
+      Counter.build()
+          .name("ybp_task_info_updates")
+          .help("Number of task info updates by how they were persisted")
+          .labelNames("mode")
+          .register(CollectorRegistry.defaultRegistry);
+
+  private final Map<UUID, PendingUpdate> pendingUpdates = new ConcurrentHashMap<>();
+
+  private final ScheduledExecutorService flushExecutor;
+
+  static class PendingUpdate {
+    final State taskState;
+    final int percentDone;
+    final Date updateTime;
+
+    private PendingUpdate(State taskState, int percentDone, Date updateTime) {
+      this.taskState = taskState;
+      this.percentDone = percentDone;
+      this.updateTime = updateTime;
+    }
+  }
+
+  public TaskInfoWriter() {
+    flushExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("task-info-writer").setDaemon(true).build());
+    flushExecutor.scheduleWithFixedDelay(
+        this::flushQuietly, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Sets the state and progress of the task. A completed state is persisted before returning, any
+   * other state is persisted with the next flush.
+   */
+  public void update(TaskInfo taskInfo, State taskState, int percentDone) {
+    Date now = new Date();
+    synchronized (taskInfo) {
+      taskInfo.setTaskState(taskState);
+      taskInfo.setPercentDone(percentDone);
+      taskInfo.setUpdateTime(now);
+    }
+    if (TaskInfo.COMPLETED_STATES.contains(taskState)) {
+      // Drop the buffered update first so that the flush cannot write it after this.
+      pendingUpdates.remove(taskInfo.getUuid());
+      taskInfo.update();
+      TASK_INFO_UPDATES.labels("sync").inc();
+      return;
+    }
+    pendingUpdates.put(taskInfo.getUuid(), new PendingUpdate(taskState, percentDone, now));
+    TASK_INFO_UPDATES.labels("buffered").inc();
+  }
+
+  public void updateState(TaskInfo taskInfo, State taskState) {
+    update(taskInfo, taskState, taskState == State.Success ? 100 : taskInfo.getPercentDone());
+  }
+
+  public void updateProgress(TaskInfo taskInfo, int percentDone) {
+    update(taskInfo, taskInfo.getTaskState(), percentDone);
+  }
+
+  /** Records that the task is alive. Persisted with the next flush. */
+  public void heartbeat(TaskInfo taskInfo) {
+    update(taskInfo, taskInfo.getTaskState(), taskInfo.getPercentDone());
+  }
+
+  /**
+   * Writes all the buffered updates. Flushes are serialized, so every update buffered before the
+   * call is written when it returns, even if a concurrent flush had already taken it.
+   */
+  public synchronized void flush() {
+    List<UUID> uuids = new ArrayList<>(pendingUpdates.keySet());
+    for (int from = 0; from < uuids.size(); from += MAX_BATCH_SIZE) {
+      writeBatch(uuids.subList(from, Math.min(from + MAX_BATCH_SIZE, uuids.size())));
+    }
+  }
+
+  // The updates stay in the buffer until they are committed, so that a reader of the buffer and
+  // then the table sees every update in one of them. A written update is only removed if no newer
+  // update of the task was buffered meanwhile. A failed batch is retried by the next flush.
+  private void writeBatch(List<UUID> uuids) {
+    Map<UUID, PendingUpdate> written = new HashMap<>();
+    try (Transaction transaction = DB.beginTransaction()) {
+      transaction.setBatchMode(true);
+      transaction.setBatchSize(MAX_BATCH_SIZE);
+      SqlUpdate sqlUpdate = DB.sqlUpdate(UPDATE_TASK);
+      for (UUID uuid : uuids) {
+        PendingUpdate pendingUpdate = pendingUpdates.get(uuid);
+        if (pendingUpdate == null) {
+          continue;
+        }
+        written.put(uuid, pendingUpdate);
+        sqlUpdate
+            .setParameter("taskState", pendingUpdate.taskState.name())
+            .setParameter("percentDone", pendingUpdate.percentDone)
+            .setParameter("updateTime", pendingUpdate.updateTime)
+            .setParameter("uuid", uuid)
+            .addBatch();
+      }
+      if (!written.isEmpty()) {
+        sqlUpdate.executeBatch();
+        transaction.commit();
+      }
+    }
+    written.forEach(pendingUpdates::remove);
+    log.trace("Flushed {} task info updates", written.size());
+  }
+
+  /** Copy of the buffered updates that are not written yet, by task UUID. */
+  Map<UUID, PendingUpdate> copyPendingUpdates() {
+    return new HashMap<>(pendingUpdates);
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (Exception e) {
+      // The updates of the failed batch stay buffered and are retried by the next flush.
+      log.error("Failed to flush task info updates", e);
+    }
+  }
+
+  @VisibleForTesting
+  int getPendingCount() {
+    return pendingUpdates.size();
+  }
+
+  public void shutdown() {
+    flushExecutor.shutdown();
+    flushQuietly();
+  }
+}
@@ -0,0 +1,124 @@
+package models;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Gauge;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import javax.inject.Singleton;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import models.TaskInfo.State;
+import models.UserTaskDetails.SubTaskGroupType;
+
+/**
+ * In-memory bus of the state and progress changes of running tasks, fed by the TaskExecutor. Clients
+ * following a task subscribe to the UUID of the top level task and get the changes of the task and
+ * of its subtasks as they happen, instead of polling the task_info rows.
+ *
+ * <p>Events are delivered on the thread that changed the task, so subscribers must only hand them
+ * off, e.g. to a bounded stream buffer. Only the changes of tasks run by this process are published.
+ */
+@Singleton
+@Slf4j
+public class TaskProgressEventBus {
+
+  private static final Gauge SUBSCRIBERS =
+      Gauge.build("ybp_task_progress_subscribers", "Number of task progress stream subscribers")
+          .register(CollectorRegistry.defaultRegistry);
+
+  /** A change of the state or progress of a task or subtask. */
+  @Value
+  public static class Event {
+    // Increases with every event published by this process.
+    long sequence;
+    UUID rootTaskUUID;
+    UUID taskUUID;
+    UUID parentUUID;
+    State taskState;
+    SubTaskGroupType subTaskGroupType;
+    int percentDone;
+
+    public boolean isRootTaskCompleted() {
+      return taskUUID.equals(rootTaskUUID) && TaskInfo.COMPLETED_STATES.contains(taskState);
+    }
+  }
+
+  /** Stops the delivery of events to a subscriber. */
+  public interface Subscription extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  private final Map<UUID, List<Consumer<Event>>> subscribers = new ConcurrentHashMap<>();
+
+  private final AtomicLong sequence = new AtomicLong();
+
+  // The subscriber lists are only changed inside compute calls on the map, so that a subscriber is
+  // never added to a list that a concurrent close just removed from the map.
+  public Subscription subscribe(UUID rootTaskUUID, Consumer<Event> subscriber) {
+    subscribers.compute(
+        rootTaskUUID,
+        (k, taskSubscribers) -> {
+          List<Consumer<Event>> updated =
+              taskSubscribers == null ? new CopyOnWriteArrayList<>() : taskSubscribers;
+          updated.add(subscriber);
+          return updated;
+        });
+    SUBSCRIBERS.inc();
+    AtomicBoolean closed = new AtomicBoolean();
+    return () -> {
+      if (!closed.compareAndSet(false, true)) {
+        return;
+      }
+      subscribers.computeIfPresent(
+          rootTaskUUID,
+          (k, taskSubscribers) -> {
+            taskSubscribers.remove(subscriber);
+            return taskSubscribers.isEmpty() ? null : taskSubscribers;
+          });
+      SUBSCRIBERS.dec();
+    };
+  }
+
+  /**
+   * Returns the sequence of the last event published. Every event published later has a greater
+   * sequence.
+   */
+  public long currentSequence() {
+    return sequence.get();
+  }
+
+  public boolean hasSubscribers(UUID rootTaskUUID) {
+    return subscribers.containsKey(rootTaskUUID);
+  }
+
+  /** Publishes the current state of the task info. It is a no-op if no one follows the task. */
+  public void publish(UUID rootTaskUUID, TaskInfo taskInfo) {
+    List<Consumer<Event>> taskSubscribers = subscribers.get(rootTaskUUID);
+    if (taskSubscribers == null) {
+      return;
+    }
+    Event event =
+        new Event(
+            sequence.incrementAndGet(),
+            rootTaskUUID,
+            taskInfo.getUuid(),
+            taskInfo.getParentUuid(),
+            taskInfo.getTaskState(),
+            taskInfo.getSubTaskGroupType(),
+            taskInfo.getPercentDone());
+    for (Consumer<Event> subscriber : taskSubscribers) {
+      try {
+        subscriber.accept(event);
+      } catch (Exception e) {
+        log.error("Task progress subscriber of {} failed", rootTaskUUID, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,403 @@
+package models;
+
+import static play.mvc.Http.Status.BAD_REQUEST;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import config.CustomerConfKeys;
+import config.GlobalConfKeys;
+import config.RuntimeConfGetter;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Summary;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+import models.CustomerTask.TaskType;
+import models.TaskExecutor.RunnableTask;
+import models.TaskInfo.State;
+
+/**
+ * Admits customer tasks to the TaskExecutor so that no customer or task type can take all of the
+ * executor. Tasks wait in a queue per customer and task type, and are started when the global, per
+ * customer and per task type concurrency limits allow.
+ *
+ * <p>The next task is picked with stride scheduling: each customer has a pass value that advances
+ * by the inverse of its weight every time one of its tasks starts, and the eligible customer with
+ * the lowest pass goes first. Within a customer the task types are picked the same way using the
+ * task type weights. A customer or task type that becomes active starts at the current minimum
+ * pass, so idle time does not build up credit.
+ *
+ * <p>Tasks of the {@link #PRIORITY_TASK_TYPES} are not queued and do not count towards the limits,
+ * as they are needed to recover from the tasks that are holding the slots.
+ */
+@Singleton
+@Slf4j
+public class TaskScheduler {
+
+  public static final Set<TaskType> PRIORITY_TASK_TYPES =
+      ImmutableSet.of(TaskType.Abort, TaskType.Failover, TaskType.MasterFailover);
+
+  // Pass increment of weight 1. Large enough that weights up to a few hundred stay distinct.
+  private static final long STRIDE = 1 << 20;
+
+  private static final String LANE_PRIORITY = "priority";
+
+  private static final String LANE_FAIR = "fair";
+
+  private static final Gauge QUEUE_DEPTH =
+      Gauge.build("ybp_task_scheduler_queue_depth", "Number of tasks waiting to be started")
+          .labelNames("task_type")
+          .register(CollectorRegistry.defaultRegistry);
+
+  private static final Gauge RUNNING_TASKS =
+      Gauge.build("ybp_task_scheduler_running_tasks", "Number of tasks started by the scheduler")
+          .labelNames("lane")
+          .register(CollectorRegistry.defaultRegistry);
+
+  private static final Summary QUEUE_WAIT_SEC =
+      Summary.build("ybp_task_scheduler_wait_sec", "Time spent by a task in the scheduler queue")
+          .labelNames("task_type", "lane")
+          .register(CollectorRegistry.defaultRegistry);
+
+  private final TaskExecutor taskExecutor;
+
+  private final RuntimeConfGetter confGetter;
+
+  private final InFlightTaskRegistry inFlightTaskRegistry;
+
+  // All the state below is guarded by this.
+  private final Map<UUID, CustomerQueue> customerQueues = new HashMap<>();
+
+  private final Map<UUID, QueuedTask> queuedTasks = new HashMap<>();
+
+  private final Map<TaskType, Integer> runningByTaskType = new EnumMap<>(TaskType.class);
+
+  private int running;
+
+  private long customerPass;
+
+  @Inject
+  public TaskScheduler(
+      TaskExecutor taskExecutor,
+      RuntimeConfGetter confGetter,
+      InFlightTaskRegistry inFlightTaskRegistry) {
+    this.taskExecutor = taskExecutor;
+    this.confGetter = confGetter;
+    this.inFlightTaskRegistry = inFlightTaskRegistry;
+  }
+
+  private static class QueuedTask {
+    private final UUID customerUUID;
+    private final RunnableTask runnableTask;
+    private final ExecutorService executor;
+    private final Instant queuedTime = Instant.now();
+
+    private QueuedTask(UUID customerUUID, RunnableTask runnableTask, ExecutorService executor) {
+      this.customerUUID = customerUUID;
+      this.runnableTask = runnableTask;
+      this.executor = executor;
+    }
+  }
+
+  private static class TaskTypeQueue {
+    private final ArrayDeque<QueuedTask> tasks = new ArrayDeque<>();
+    private long pass;
+  }
+
+  private static class CustomerQueue {
+    private final int weight;
+    private final int maxRunning;
+    private final Map<TaskType, TaskTypeQueue> taskTypeQueues = new EnumMap<>(TaskType.class);
+    private long pass;
+    private long taskTypePass;
+    private int running;
+    private int queued;
+
+    private CustomerQueue(int weight, int maxRunning) {
+      this.weight = weight;
+      this.maxRunning = maxRunning;
+    }
+  }
+
+  /**
+   * Registers the customer task in the {@link InFlightTaskRegistry}, which checks that it may start
+   * on its target, and queues it. The registry completes the task when the task runs, fails or is
+   * cancelled while queued.
+   *
+   * @param lockTarget true if the task takes the lock on the target.
+   * @param retriedTaskUUID the task that this task retries, or null if it is not a retry.
+   * @return the UUID of the task.
+   * @throws PlatformServiceException if the task is not allowed to start.
+   */
+  public UUID schedule(
+      CustomerTask customerTask,
+      boolean lockTarget,
+      @Nullable UUID retriedTaskUUID,
+      RunnableTask runnableTask,
+      ExecutorService executor) {
+    inFlightTaskRegistry.register(customerTask, lockTarget, retriedTaskUUID, runnableTask);
+    try {
+      return schedule(customerTask.getCustomerUUID(), runnableTask, executor);
+    } catch (RuntimeException e) {
+      // Releases the registration.
+      runnableTask.setState(State.Failure);
+      runnableTask.getCompletion().complete(State.Failure);
+      throw e;
+    }
+  }
+
+  /**
+   * Queues the task of the customer to be submitted to the executor when the limits allow. Tasks of
+   * the priority task types are submitted right away.
+   *
+   * @return the UUID of the task.
+   */
+  public UUID schedule(UUID customerUUID, RunnableTask runnableTask, ExecutorService executor) {
+    TaskType taskType = runnableTask.getTaskType();
+    if (PRIORITY_TASK_TYPES.contains(taskType)) {
+      QUEUE_WAIT_SEC.labels(taskType.name(), LANE_PRIORITY).observe(0);
+      RUNNING_TASKS.labels(LANE_PRIORITY).inc();
+      runnableTask
+          .getCompletion()
+          .whenComplete((state, t) -> RUNNING_TASKS.labels(LANE_PRIORITY).dec());
+      return taskExecutor.submit(runnableTask, executor);
+    }
+    // A customer without a queue is looked up with its config outside of the lock, which every
+    // dispatch and completion contends on.
+    if (!enqueue(customerUUID, runnableTask, executor, null)) {
+      enqueue(customerUUID, runnableTask, executor, createCustomerQueue(customerUUID));
+    }
+    dispatch();
+    return runnableTask.getTaskUUID();
+  }
+
+  /**
+   * Adds the task to the queue of its customer, or to the new queue if the customer has none.
+   *
+   * @return false if the customer has no queue and no new queue is given.
+   */
+  private synchronized boolean enqueue(
+      UUID customerUUID,
+      RunnableTask runnableTask,
+      ExecutorService executor,
+      @Nullable CustomerQueue newCustomerQueue) {
+    CustomerQueue customerQueue = customerQueues.get(customerUUID);
+    if (customerQueue == null) {
+      if (newCustomerQueue == null) {
+        return false;
+      }
+      customerQueue = newCustomerQueue;
+      customerQueues.put(customerUUID, customerQueue);
+    }
+    // Also starts a new queue from the current pass.
+    if (customerQueue.queued == 0 && customerQueue.running == 0) {
+      customerQueue.pass = Math.max(customerQueue.pass, customerPass);
+    }
+    TaskType taskType = runnableTask.getTaskType();
+    TaskTypeQueue taskTypeQueue =
+        customerQueue.taskTypeQueues.computeIfAbsent(taskType, k -> new TaskTypeQueue());
+    if (taskTypeQueue.tasks.isEmpty()) {
+      taskTypeQueue.pass = Math.max(taskTypeQueue.pass, customerQueue.taskTypePass);
+    }
+    QueuedTask queuedTask = new QueuedTask(customerUUID, runnableTask, executor);
+    taskTypeQueue.tasks.add(queuedTask);
+    customerQueue.queued++;
+    queuedTasks.put(runnableTask.getTaskUUID(), queuedTask);
+    QUEUE_DEPTH.labels(taskType.name()).inc();
+    log.debug(
+        "Queued task {} ({}) of customer {}", taskType, runnableTask.getTaskUUID(), customerUUID);
+    return true;
+  }
+
+  /**
+   * Removes the task from the queue if it has not started yet and marks it as aborted.
+   *
+   * @return true if the task was removed.
+   */
+  public boolean cancel(UUID taskUUID) {
+    QueuedTask queuedTask;
+    synchronized (this) {
+      queuedTask = queuedTasks.remove(taskUUID);
+      if (queuedTask == null) {
+        return false;
+      }
+      TaskType taskType = queuedTask.runnableTask.getTaskType();
+      CustomerQueue customerQueue = customerQueues.get(queuedTask.customerUUID);
+      customerQueue.taskTypeQueues.get(taskType).tasks.remove(queuedTask);
+      customerQueue.queued--;
+      removeIfIdle(queuedTask.customerUUID, customerQueue);
+      QUEUE_DEPTH.labels(taskType.name()).dec();
+    }
+    queuedTask.runnableTask.setState(State.Aborted);
+    queuedTask.runnableTask.getCompletion().complete(State.Aborted);
+    log.info("Cancelled queued task {}", taskUUID);
+    return true;
+  }
+
+  public synchronized boolean isQueued(UUID taskUUID) {
+    return queuedTasks.containsKey(taskUUID);
+  }
+
+  /** Returns the number of tasks of the customer that are waiting to be started. */
+  public synchronized int getQueueDepth(UUID customerUUID) {
+    CustomerQueue customerQueue = customerQueues.get(customerUUID);
+    return customerQueue == null ? 0 : customerQueue.queued;
+  }
+
+  // Submit the queued tasks that fit within the limits.
+  @VisibleForTesting
+  void dispatch() {
+    int maxRunning = confGetter.getGlobalConf(GlobalConfKeys.maxConcurrentTasks);
+    Map<TaskType, Integer> taskTypeLimits =
+        parseTaskTypeValues(confGetter.getGlobalConf(GlobalConfKeys.taskTypeConcurrencyLimits));
+    Map<TaskType, Integer> taskTypeWeights =
+        parseTaskTypeValues(confGetter.getGlobalConf(GlobalConfKeys.taskTypeWeights));
+    while (true) {
+      QueuedTask queuedTask;
+      synchronized (this) {
+        if (running >= maxRunning) {
+          return;
+        }
+        queuedTask = pollNext(taskTypeLimits, taskTypeWeights);
+        if (queuedTask == null) {
+          return;
+        }
+      }
+      start(queuedTask);
+    }
+  }
+
+  private QueuedTask pollNext(
+      Map<TaskType, Integer> taskTypeLimits, Map<TaskType, Integer> taskTypeWeights) {
+    UUID nextCustomerUUID = null;
+    CustomerQueue nextCustomerQueue = null;
+    TaskTypeQueue nextTaskTypeQueue = null;
+    for (Map.Entry<UUID, CustomerQueue> entry : customerQueues.entrySet()) {
+      CustomerQueue customerQueue = entry.getValue();
+      if (customerQueue.queued == 0 || customerQueue.running >= customerQueue.maxRunning) {
+        continue;
+      }
+      if (nextCustomerQueue != null && customerQueue.pass >= nextCustomerQueue.pass) {
+        continue;
+      }
+      TaskTypeQueue taskTypeQueue = pickTaskType(customerQueue, taskTypeLimits);
+      if (taskTypeQueue != null) {
+        nextCustomerUUID = entry.getKey();
+        nextCustomerQueue = customerQueue;
+        nextTaskTypeQueue = taskTypeQueue;
+      }
+    }
+    if (nextCustomerQueue == null) {
+      return null;
+    }
+    QueuedTask queuedTask = nextTaskTypeQueue.tasks.poll();
+    TaskType taskType = queuedTask.runnableTask.getTaskType();
+    customerPass = nextCustomerQueue.pass;
+    nextCustomerQueue.pass += STRIDE / nextCustomerQueue.weight;
+    nextCustomerQueue.taskTypePass = nextTaskTypeQueue.pass;
+    nextTaskTypeQueue.pass += STRIDE / Math.max(1, taskTypeWeights.getOrDefault(taskType, 1));
+    nextCustomerQueue.queued--;
+    nextCustomerQueue.running++;
+    runningByTaskType.merge(taskType, 1, Integer::sum);
+    running++;
+    queuedTasks.remove(queuedTask.runnableTask.getTaskUUID());
+    if (nextTaskTypeQueue.tasks.isEmpty()) {
+      nextCustomerQueue.taskTypeQueues.remove(taskType);
+    }
+    log.trace("Picked task {} of customer {}", taskType, nextCustomerUUID);
+    return queuedTask;
+  }
+
+  // The task type of the customer with the lowest pass that is under its concurrency limit.
+  private TaskTypeQueue pickTaskType(
+      CustomerQueue customerQueue, Map<TaskType, Integer> taskTypeLimits) {
+    TaskTypeQueue next = null;
+    for (Map.Entry<TaskType, TaskTypeQueue> entry : customerQueue.taskTypeQueues.entrySet()) {
+      TaskTypeQueue taskTypeQueue = entry.getValue();
+      if (taskTypeQueue.tasks.isEmpty() || (next != null && taskTypeQueue.pass >= next.pass)) {
+        continue;
+      }
+      Integer limit = taskTypeLimits.get(entry.getKey());
+      if (limit != null && runningByTaskType.getOrDefault(entry.getKey(), 0) >= limit) {
+        continue;
+      }
+      next = taskTypeQueue;
+    }
+    return next;
+  }
+
+  private void start(QueuedTask queuedTask) {
+    RunnableTask runnableTask = queuedTask.runnableTask;
+    TaskType taskType = runnableTask.getTaskType();
+    QUEUE_DEPTH.labels(taskType.name()).dec();
+    QUEUE_WAIT_SEC
+        .labels(taskType.name(), LANE_FAIR)
+        .observe(Duration.between(queuedTask.queuedTime, Instant.now()).toMillis() / 1000.0);
+    RUNNING_TASKS.labels(LANE_FAIR).inc();
+    runnableTask.getCompletion().whenComplete((state, t) -> onComplete(queuedTask));
+    try {
+      taskExecutor.submit(runnableTask, queuedTask.executor);
+    } catch (PlatformServiceException e) {
+      // The completion is already signalled by the executor, which releases the slot.
+      log.error("Failed to start task {} ({})", taskType, runnableTask.getTaskUUID(), e);
+    }
+  }
+
+  private void onComplete(QueuedTask queuedTask) {
+    RUNNING_TASKS.labels(LANE_FAIR).dec();
+    synchronized (this) {
+      running--;
+      runningByTaskType.merge(queuedTask.runnableTask.getTaskType(), -1, Integer::sum);
+      CustomerQueue customerQueue = customerQueues.get(queuedTask.customerUUID);
+      customerQueue.running--;
+      removeIfIdle(queuedTask.customerUUID, customerQueue);
+    }
+    dispatch();
+  }
+
+  // Drop the queue of a customer with nothing queued or running, so that weight and limit changes
+  // are picked up by its next task. Its pass is restarted from the current minimum anyway.
+  private void removeIfIdle(UUID customerUUID, CustomerQueue customerQueue) {
+    if (customerQueue.queued == 0 && customerQueue.running == 0) {
+      customerQueues.remove(customerUUID);
+    }
+  }
+
+  private CustomerQueue createCustomerQueue(UUID customerUUID) {
+    Customer customer = Customer.get(customerUUID);
+    if (customer == null) {
+      throw new PlatformServiceException(BAD_REQUEST, "Invalid Customer UUID: " + customerUUID);
+    }
+    int weight = confGetter.getConfForScope(customer, CustomerConfKeys.taskSchedulerWeight);
+    int maxRunning =
+        confGetter.getConfForScope(customer, CustomerConfKeys.maxConcurrentTasksPerCustomer);
+    return new CustomerQueue(Math.max(1, weight), maxRunning > 0 ? maxRunning : Integer.MAX_VALUE);
+  }
+
+  // Parse TaskType=value entries. Invalid entries are logged and skipped.
+  @VisibleForTesting
+  static Map<TaskType, Integer> parseTaskTypeValues(List<String> entries) {
+    Map<TaskType, Integer> values = new EnumMap<>(TaskType.class);
+    for (String entry : entries) {
+      String[] parts = entry.split("=", 2);
+      try {
+        values.put(TaskType.valueOf(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+      } catch (RuntimeException e) {
+        log.warn("Ignoring invalid task scheduler entry {}", entry);
+      }
+    }
+    return values;
+  }
+}
@@ -0,0 +1,174 @@
+package models;
+
+import com.google.common.collect.ImmutableList;
+import io.ebean.DB;
+import io.ebean.SqlRow;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import lombok.Getter;
+import lombok.Value;
+import models.TaskInfo.State;
+import models.UserTaskDetails.SubTaskGroupType;
+
+/**
+ * A task and all of its descendant subtasks, loaded with a single recursive query. Only the columns
+ * needed to report progress are read, so the task params of the subtasks are never loaded. The
+ * state of each subtask group type is aggregated while the rows are read, using the state
+ * precedence.
+ */
+@Getter
+public class TaskTree {
+
+  // The create_time of the root task from task_info_key limits the partitions that are scanned, as
+  // subtasks are created after their parent.
+  private static final String TREE_QUERY =
+      "with recursive root as (select create_time from task_info_key where uuid = :uuid),"
+          + " tree as ("
+          + " select uuid, parent_uuid, position, task_state, sub_task_group_type, percent_done,"
+          + " update_time, 0 as depth from task_info"
+          + " where uuid = :uuid and create_time = (select create_time from root)"
+          + " union all"
+          + " select t.uuid, t.parent_uuid, t.position, t.task_state, t.sub_task_group_type,"
+          + " t.percent_done, t.update_time, tree.depth + 1 from task_info t"
+          + " join tree on t.parent_uuid = tree.uuid"
+          + " where t.create_time >= (select create_time from root)"
+          + ") select uuid, parent_uuid, position, task_state, sub_task_group_type, percent_done,"
+          + " update_time, depth from tree order by depth, position";
+
+  /** Projection of a task_info row. */
+  @Value
+  public static class Node {
+    UUID uuid;
+    UUID parentUuid;
+    int position;
+    State taskState;
+    SubTaskGroupType subTaskGroupType;
+    int percentDone;
+    int depth;
+  }
+
+  /** Aggregated state of the subtasks of a group type. */
+  @Getter
+  public static class GroupSummary {
+    private final SubTaskGroupType subTaskGroupType;
+    // Position of the first subtask, to order the groups as they were run.
+    private final int firstPosition;
+    private State taskState;
+    private int totalCount;
+    private int completedCount;
+
+    private GroupSummary(SubTaskGroupType subTaskGroupType, int firstPosition) {
+      this.subTaskGroupType = subTaskGroupType;
+      this.firstPosition = firstPosition;
+    }
+
+    private void add(Node node) {
+      if (taskState == null || node.taskState.getPrecedence() > taskState.getPrecedence()) {
+        taskState = node.taskState;
+      }
+      totalCount++;
+      if (TaskInfo.COMPLETED_STATES.contains(node.taskState)) {
+        completedCount++;
+      }
+    }
+
+    public double getPercentComplete() {
+      return totalCount == 0 ? 0 : completedCount * 100.0 / totalCount;
+    }
+  }
+
+  private final Node root;
+
+  // All the nodes ordered by depth and position. The root is first.
+  private final List<Node> nodes;
+
+  // Summaries of the direct subtasks of the root by group type, in the order they were run.
+  private final List<GroupSummary> groupSummaries;
+
+  private TaskTree(Node root, List<Node> nodes, List<GroupSummary> groupSummaries) {
+    this.root = root;
+    this.nodes = nodes;
+    this.groupSummaries = groupSummaries;
+  }
+
+  /** Loads the tree of the task, or returns empty if the task does not exist. */
+  public static Optional<TaskTree> load(UUID taskUUID) {
+    return load(taskUUID, Collections.emptyMap());
+  }
+
+  /**
+   * Loads the tree of the task with the updates buffered by the writer, without waiting for them to
+   * be written. The buffer is read before the table and an update leaves the buffer only once it is
+   * committed, so every update is in one of them. The newer of the two is used.
+   */
+  public static Optional<TaskTree> load(UUID taskUUID, TaskInfoWriter taskInfoWriter) {
+    return load(taskUUID, taskInfoWriter.copyPendingUpdates());
+  }
+
+  private static Optional<TaskTree> load(
+      UUID taskUUID, Map<UUID, TaskInfoWriter.PendingUpdate> pendingUpdates) {
+    List<SqlRow> rows = DB.sqlQuery(TREE_QUERY).setParameter("uuid", taskUUID).findList();
+    if (rows.isEmpty()) {
+      return Optional.empty();
+    }
+    List<Node> nodes = new ArrayList<>(rows.size());
+    Map<SubTaskGroupType, GroupSummary> summaries = new EnumMap<>(SubTaskGroupType.class);
+    for (SqlRow row : rows) {
+      Node node = toNode(row, pendingUpdates);
+      nodes.add(node);
+      if (node.depth == 1 && node.subTaskGroupType != null) {
+        summaries
+            .computeIfAbsent(
+                node.subTaskGroupType, type -> new GroupSummary(type, node.getPosition()))
+            .add(node);
+      }
+    }
+    List<GroupSummary> groupSummaries = new ArrayList<>(summaries.values());
+    groupSummaries.sort((g1, g2) -> Integer.compare(g1.firstPosition, g2.firstPosition));
+    return Optional.of(
+        new TaskTree(
+            nodes.get(0),
+            Collections.unmodifiableList(nodes),
+            ImmutableList.copyOf(groupSummaries)));
+  }
+
+  /** Returns the subtasks whose parent is the given task, in position order. */
+  public List<Node> getChildren(UUID parentUuid) {
+    List<Node> children = new ArrayList<>();
+    for (Node node : nodes) {
+      if (parentUuid.equals(node.parentUuid)) {
+        children.add(node);
+      }
+    }
+    return children;
+  }
+
+  private static Node toNode(SqlRow row, Map<UUID, TaskInfoWriter.PendingUpdate> pendingUpdates) {
+    UUID uuid = row.getUUID("uuid");
+    Integer position = row.getInteger("position");
+    State taskState = State.valueOf(row.getString("task_state"));
+    Integer percentDone = row.getInteger("percent_done");
+    String groupType = row.getString("sub_task_group_type");
+    Date updateTime = row.getTimestamp("update_time");
+    TaskInfoWriter.PendingUpdate pendingUpdate = pendingUpdates.get(uuid);
+    if (pendingUpdate != null
+        && (updateTime == null || pendingUpdate.updateTime.after(updateTime))) {
+      taskState = pendingUpdate.taskState;
+      percentDone = pendingUpdate.percentDone;
+    }
+    return new Node(
+        uuid,
+        row.getUUID("parent_uuid"),
+        position == null ? -1 : position,
+        taskState,
+        groupType == null ? null : SubTaskGroupType.valueOf(groupType),
+        percentDone == null ? 0 : percentDone,
+        row.getInteger("depth"));
+  }
+}
@@ -1,35 +1,47 @@
 package models;
 
 import static play.mvc.Http.Status.BAD_REQUEST;
+import static play.mvc.Http.Status.CONFLICT;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import io.ebean.DB;
 import io.ebean.Finder;
 import io.ebean.Model;
 import io.ebean.SqlQuery;
+import io.ebean.Transaction;
 import io.ebean.annotation.DbJson;
+import io.ebean.annotation.DbJsonB;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
 import jakarta.persistence.Id;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
 import jakarta.persistence.UniqueConstraint;
 
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 import play.data.validation.Constraints;
+import play.libs.Json;
+import models.UniverseDefinitionTaskParams.SoftwareUpgradeState;
 
 @Table(uniqueConstraints = @UniqueConstraint(columnNames = {"name", "customer_id"}))
 @Entity
@@ -109,18 +121,234 @@ public class Universe extends Model {
     return config == null ? new HashMap<>() : config;
   }
 
-  // The Json serialized version of universeDetails. This is used only in read from and writing to
-  // the DB.
-  @Constraints.Required
-  @Column(columnDefinition = "TEXT", nullable = false)
+  // The legacy Json serialized version of universeDetails. Only universes that were not written
+  // since the binary details columns were added have this set. New writes go to
+  // universeDetailsJsonb and universeDetailsSmile, and clear this column.
+  @Column(columnDefinition = "TEXT")
   private String universeDetailsJson;
 
-  // @Transient private UniverseDefinitionTaskParams universeDetails;
+  // The universe details as jsonb. Used for extracting fields in SQL.
+  @DbJsonB
+  @Column(name = "universe_details")
+  private String universeDetailsJsonb;
 
-  // public void setUniverseDetails(UniverseDefinitionTaskParams details) {
-  //   universeDetailsJson = Json.stringify(Json.toJson(details));
-  //   universeDetails = details;
-  // }
+  // The universe details encoded as Smile. Used for reading the details on the Java side.
+  @JsonIgnore
+  @Column(columnDefinition = "bytea")
+  private byte[] universeDetailsSmile;
+
+  // Projections of frequently polled universe details fields. These are generated by the DB from
+  // universe_details on every write, so they are never written from here.
+  @Setter(AccessLevel.NONE)
+  @Column(insertable = false, updatable = false)
+  private boolean updateInProgress;
+
+  @Setter(AccessLevel.NONE)
+  @Column(insertable = false, updatable = false)
+  private boolean universePaused;
+
+  @Setter(AccessLevel.NONE)
+  @Enumerated(EnumType.STRING)
+  @Column(insertable = false, updatable = false)
+  private SoftwareUpgradeState softwareUpgradeState;
+
+  @Setter(AccessLevel.NONE)
+  @Column(insertable = false, updatable = false)
+  private UUID placementModificationTaskUuid;
+
+  // Universe details fields that have a projected column, by field name.
+  private static final Map<String, String> PROJECTED_DETAILS_FIELDS =
+      ImmutableMap.of(
+          "updateInProgress", "update_in_progress",
+          "universePaused", "universe_paused",
+          "softwareUpgradeState", "software_upgrade_state",
+          UniverseDefinitionTaskParams.PLACEMENT_MODIFICATION_TASK_UUID_FIELD,
+          "placement_modification_task_uuid");
+
+  private static final String BUMP_VERSION =
+      "update universe set version = version + 1"
+          + " where universe_uuid = :universeUUID and version = :version";
+
+  @Transient private UniverseDefinitionTaskParams universeDetails;
+
+  // Set when the details were replaced on this object, so that the version is bumped and the node
+  // states are written on save.
+  @Transient
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private boolean detailsDirty;
+
+  // Volatile node fields of the details as they were loaded, so that a details save only writes the
+  // node states it changed and keeps concurrent node transitions. Null if no details were loaded.
+  @Transient
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private Map<String, UniverseNodeState> nodeStatesSnapshot;
+
+  // Set when the name was changed, so that the alert configurations targeting the universe get the
+  // new target name on save.
+  @Transient
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private boolean nameChanged;
+
+  public void setName(String name) {
+    nameChanged |= !Objects.equals(this.name, name);
+    this.name = name;
+  }
+
+  public void setUniverseDetails(UniverseDefinitionTaskParams details) {
+    if (nodeStatesSnapshot == null
+        && (universeDetailsSmile != null || getUniverseDetailsJson() != null)) {
+      // The details are replaced without being read through this object, e.g. from a copy.
+      nodeStatesSnapshot = UniverseNodeState.snapshot(getUniverseDetails());
+    }
+    JsonNode tree = UniverseDetailsCodec.toTree(details);
+    setPersistedDetails(details, Json.stringify(tree), UniverseDetailsCodec.toSmile(tree));
+    detailsDirty = true;
+  }
+
+  // Set the details along with their already encoded forms.
+  void setPersistedDetails(UniverseDefinitionTaskParams details, String jsonb, byte[] smile) {
+    universeDetailsJsonb = jsonb;
+    universeDetailsSmile = smile;
+    universeDetailsJson = null;
+    universeDetails = details;
+  }
+
+  /** The universe details as JSON text, from whichever column holds them. */
+  @JsonIgnore
+  public String getUniverseDetailsJson() {
+    return universeDetailsJson != null ? universeDetailsJson : universeDetailsJsonb;
+  }
+
+  /**
+   * Get the parsed universe details with the UniverseNodeState overlaid on the nodes. Unless they
+   * were set on this object, the details are shared through the UniverseDetailsCache with every
+   * reader of the same universe version, so they must not be modified. Use {@link
+   * #copyUniverseDetails()} to get a copy that can be modified.
+   */
+  @JsonIgnore
+  public UniverseDefinitionTaskParams getUniverseDetails() {
+    if (universeDetails == null) {
+      // The node states are overlaid on freshly parsed details before they are shared, and the
+      // cache drops them on every node state write.
+      if (universeDetailsSmile != null) {
+        byte[] smile = universeDetailsSmile;
+        universeDetails =
+            UniverseDetailsCache.get(
+                universeUUID,
+                version,
+                smile.length,
+                () -> withNodeStates(UniverseDetailsCodec.fromSmile(smile)));
+      } else {
+        String json = getUniverseDetailsJson();
+        universeDetails =
+            UniverseDetailsCache.get(
+                universeUUID,
+                version,
+                json.length(),
+                () -> withNodeStates(UniverseDetailsCodec.fromJson(json)));
+      }
+      nodeStatesSnapshot = UniverseNodeState.snapshot(universeDetails);
+    }
+    return universeDetails;
+  }
+
+  /**
+   * Parse a private copy of the universe details, bypassing the UniverseDetailsCache. The
+   * UniverseNodeState is overlaid on the nodes.
+   */
+  @JsonIgnore
+  public UniverseDefinitionTaskParams copyUniverseDetails() {
+    return withNodeStates(
+        universeDetailsSmile != null
+            ? UniverseDetailsCodec.fromSmile(universeDetailsSmile)
+            : UniverseDetailsCodec.fromJson(getUniverseDetailsJson()));
+  }
+
+  private UniverseDefinitionTaskParams withNodeStates(UniverseDefinitionTaskParams details) {
+    UniverseNodeState.mergeInto(universeUUID, details);
+    return details;
+  }
+
+  // The cache is keyed by version, so every write of new details bumps the version. Otherwise a
+  // reader that parsed the old details could cache them again under the unchanged version. The
+  // bump is a compare-and-set on the version that was read, like the UniverseDetailsUpdater does,
+  // so that details set here do not silently overwrite a concurrent update. Node transitions do not
+  // bump the version, so only the node states changed since the details were loaded are written.
+  @Override
+  public void save() {
+    if (detailsDirty && !DB.beanState(this).isNew()) {
+      update();
+      return;
+    }
+    super.save();
+    afterDetailsWrite();
+  }
+
+  @Override
+  public void update() {
+    if (!detailsDirty) {
+      super.update();
+      afterDetailsWrite();
+      return;
+    }
+    int readVersion = version;
+    try (Transaction transaction = DB.beginTransaction()) {
+      int bumped =
+          DB.sqlUpdate(BUMP_VERSION)
+              .setParameter("universeUUID", universeUUID)
+              .setParameter("version", readVersion)
+              .execute();
+      if (bumped != 1) {
+        throw new PlatformServiceException(
+            CONFLICT,
+            String.format(
+                "Universe %s was modified after version %d was read", universeUUID, readVersion));
+      }
+      version = readVersion + 1;
+      super.update();
+      syncNodeStates();
+      transaction.commit();
+    } catch (RuntimeException e) {
+      version = readVersion;
+      throw e;
+    }
+    nodeStatesSnapshot = UniverseNodeState.snapshot(universeDetails);
+    detailsDirty = false;
+    afterDetailsWrite();
+  }
+
+  // A universe without loaded details, e.g. a new one, gets the rows of all its nodes.
+  private void syncNodeStates() {
+    if (nodeStatesSnapshot == null) {
+      UniverseNodeState.syncFrom(universeUUID, universeDetails);
+    } else {
+      UniverseNodeState.syncChanges(universeUUID, nodeStatesSnapshot, universeDetails);
+    }
+  }
+
+  private void afterDetailsWrite() {
+    UniverseDetailsCache.invalidate(universeUUID);
+    if (detailsDirty) {
+      syncNodeStates();
+      nodeStatesSnapshot = UniverseNodeState.snapshot(universeDetails);
+      detailsDirty = false;
+    }
+    if (nameChanged) {
+      AlertConfiguration.refreshTargetNamesOfUniverse(universeUUID);
+      nameChanged = false;
+    }
+  }
+
+  @Override
+  public boolean delete() {
+    boolean deleted = super.delete();
+    UniverseDetailsCache.remove(universeUUID);
+    AlertConfiguration.refreshTargetNamesOfUniverse(universeUUID);
+    return deleted;
+  }
 
 
 
@@ -189,6 +417,10 @@ public class Universe extends Model {
 
 
 
+  public static Optional<Universe> maybeGet(UUID universeUUID) {
+    return Optional.ofNullable(find.byId(universeUUID));
+  }
+
   public static Set<UUID> getAllUUIDs() {
     return ImmutableSet.copyOf(find.query().where().findIds());
   }
@@ -203,7 +435,7 @@ public class Universe extends Model {
 
 
   /**
-   * Find a single attribute from universe_details_json column of Universe.
+   * Find a single attribute from the universe details of Universe.
    *
    * @param clazz the attribute type.
    * @param universeUUID the universe UUID to be searched for.
@@ -214,16 +446,15 @@ public class Universe extends Model {
       Class<T> clazz, UUID universeUUID, String fieldName) {
     String query =
         String.format(
-            "select universe_details_json::jsonb->>'%s' as field from universe"
-                + " where universe_uuid = :universeUUID",
-            fieldName);
+            "select %s as field from universe where universe_uuid = :universeUUID",
+            detailsFieldExpression(fieldName));
     SqlQuery sqlQuery = DB.sqlQuery(query);
     sqlQuery.setParameter("universeUUID", universeUUID);
     return sqlQuery.findOneOrEmpty().map(row -> clazz.cast(row.get("field")));
   }
 
   /**
-   * Find a single attribute from universe_details_json column of all Universe records.
+   * Find a single attribute from the universe details of all Universe records.
    *
    * @param clazz the attribute type.
    * @param customerId the customer ID primary key.
@@ -234,9 +465,8 @@ public class Universe extends Model {
       Class<T> clazz, Long customerId, String fieldName) {
     String query =
         String.format(
-            "select universe_uuid, universe_details_json::jsonb->>'%s' as field from universe"
-                + " where customer_id = :customerId",
-            fieldName);
+            "select universe_uuid, %s as field from universe where customer_id = :customerId",
+            detailsFieldExpression(fieldName));
     SqlQuery sqlQuery = DB.sqlQuery(query);
     sqlQuery.setParameter("customerId", customerId);
     return sqlQuery.findList().stream()
@@ -245,6 +475,53 @@ public class Universe extends Model {
             Collectors.toMap(r -> (UUID) r.get("universe_uuid"), r -> clazz.cast(r.get("field"))));
   }
 
+  // Text value of the universe details field, read from its projected column if it has one.
+  private static String detailsFieldExpression(String fieldName) {
+    String column = PROJECTED_DETAILS_FIELDS.get(fieldName);
+    if (column != null) {
+      return column + "::text";
+    }
+    return String.format(
+        "coalesce(universe_details, universe_details_json::jsonb)->>'%s'", fieldName);
+  }
 
-}
+  /** UUIDs of the customer universes with an update in progress. Uses a partial index. */
+  public static Set<UUID> getUpdatingUniverseUUIDs(Long customerId) {
+    return ImmutableSet.copyOf(
+        find.query().where().eq("customerId", customerId).eq("updateInProgress", true).findIds());
+  }
+
+  public static boolean isAnyUniverseUpdating(Long customerId) {
+    return find.query().where().eq("customerId", customerId).eq("updateInProgress", true).exists();
+  }
 
+  public static Set<UUID> getPausedUniverseUUIDs(Long customerId) {
+    return ImmutableSet.copyOf(
+        find.query().where().eq("customerId", customerId).eq("universePaused", true).findIds());
+  }
+
+  public static Set<UUID> getUniverseUUIDsInSoftwareUpgradeStates(
+      Long customerId, Set<SoftwareUpgradeState> states) {
+    return ImmutableSet.copyOf(
+        find.query()
+            .where()
+            .eq("customerId", customerId)
+            .in("softwareUpgradeState", states)
+            .findIds());
+  }
+
+  /** Universe UUID to the UUID of the failed task that last modified its placement. */
+  public static Map<UUID, UUID> getPlacementModificationTaskUUIDs(Long customerId) {
+    return find
+        .query()
+        .select("universeUUID, placementModificationTaskUuid")
+        .where()
+        .eq("customerId", customerId)
+        .isNotNull("placementModificationTaskUuid")
+        .findList()
+        .stream()
+        .collect(
+            Collectors.toMap(
+                Universe::getUniverseUUID, Universe::getPlacementModificationTaskUuid));
+  }
+}
@@ -58,6 +58,68 @@ public class UniverseDefinitionTaskParams {
   @Size(min = 1)
   public List<Cluster> clusters = new LinkedList<>();
 
+  // The set of nodes that are part of this universe. The volatile node fields may be overridden by
+  // UniverseNodeState rows when the details are read from a Universe.
+  @ApiModelProperty public Set<NodeDetails> nodeDetailsSet = new NodeDetailsSet();
+
+  // Lookup index over nodeDetailsSet, built on first use.
+  private transient volatile IndexedNodes indexedNodes;
+
+  // The index along with the set and the modification count of the set it was built from.
+  private static class IndexedNodes {
+    private final Set<NodeDetails> nodeDetailsSet;
+    private final int modCount;
+    private final NodeDetailsIndex index;
+
+    private IndexedNodes(Set<NodeDetails> nodeDetailsSet, int modCount, NodeDetailsIndex index) {
+      this.nodeDetailsSet = nodeDetailsSet;
+      this.modCount = modCount;
+      this.index = index;
+    }
+  }
+
+  @JsonSetter("nodeDetailsSet")
+  public void setNodeDetailsSet(Set<NodeDetails> nodeDetailsSet) {
+    this.nodeDetailsSet = new NodeDetailsSet(nodeDetailsSet);
+  }
+
+  /**
+   * Get the lookup index over the nodes. It is rebuilt if nodeDetailsSet was replaced or nodes were
+   * added or removed since it was built. If nodeDetailsSet was replaced by a set other than a
+   * {@link NodeDetailsSet}, its modifications cannot be tracked and the index is rebuilt on every
+   * call. Callers that change the fields of nodes in place must call {@link
+   * #invalidateNodeIndex()}.
+   */
+  @JsonIgnore
+  public NodeDetailsIndex getNodeIndex() {
+    Set<NodeDetails> nodes = nodeDetailsSet;
+    if (!(nodes instanceof NodeDetailsSet)) {
+      return new NodeDetailsIndex(nodes);
+    }
+    int modCount = ((NodeDetailsSet) nodes).getModCount();
+    IndexedNodes indexed = indexedNodes;
+    if (indexed == null || indexed.nodeDetailsSet != nodes || indexed.modCount != modCount) {
+      indexed = new IndexedNodes(nodes, modCount, new NodeDetailsIndex(nodes));
+      indexedNodes = indexed;
+    }
+    return indexed.index;
+  }
+
+  public void invalidateNodeIndex() {
+    indexedNodes = null;
+  }
+
+  @JsonIgnore
+  @Nullable
+  public NodeDetails getNode(String nodeName) {
+    return getNodeIndex().getByName(nodeName);
+  }
+
+  @JsonIgnore
+  public List<NodeDetails> getNodesInCluster(UUID clusterUuid) {
+    return getNodeIndex().getInPlacement(clusterUuid);
+  }
+
   // This is set during configure to figure out which cluster type is intended to be modified.
   @ApiModelProperty public ClusterType currentClusterType;
 
@@ -0,0 +1,152 @@
+package models;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Process wide cache of the parsed universe details. Each universe has at most one entry holding
+ * the details parsed from a specific universe version. A read for any other version parses the
+ * persisted details again and replaces the entry, so a version bump invalidates the old details.
+ * The size of the cache is bounded by an estimate of the heap used by the parsed details, derived
+ * from the size of the persisted forms. The estimate is not exact, so the bound is approximate.
+ *
+ * <p>The details are cached with the {@link UniverseNodeState} overlaid on the nodes. Node state
+ * writes do not bump the version, so they bump a node state generation of the universe instead,
+ * and an entry is only used while the generation it was built at is current.
+ *
+ * <p>The cached details are shared by every reader of that universe version and must not be
+ * modified. Use {@link Universe#copyUniverseDetails()} to get a private copy to modify.
+ */
+@Slf4j
+public final class UniverseDetailsCache {
+
+  // Estimated heap size in bytes of the parsed universe details that can be cached.
+  private static final long MAX_CACHED_WEIGHT = 256L * 1024 * 1024;
+
+  // Estimated heap bytes of the parsed details per unit (JSON char or Smile byte) of the persisted
+  // form. Parsed objects carry headers, references, boxed values and one String per field value,
+  // which is typically several times the size of the compact persisted forms.
+  private static final int HEAP_BYTES_PER_PERSISTED_UNIT = 8;
+
+  private static final Counter CACHE_REQUESTS =
+      Counter.build()
+          .name("ybp_universe_details_cache_requests")
+          .help("Number of parsed universe details lookups by result")
+          .labelNames("result")
+          .register(CollectorRegistry.defaultRegistry);
+
+  private static final Counter CACHE_EVICTIONS =
+      Counter.build()
+          .name("ybp_universe_details_cache_evictions")
+          .help("Number of parsed universe details evicted to bound the cache size")
+          .register(CollectorRegistry.defaultRegistry);
+
+  private static final Cache<UUID, Entry> CACHE =
+      CacheBuilder.newBuilder()
+          .maximumWeight(MAX_CACHED_WEIGHT)
+          .<UUID, Entry>weigher(
+              (uuid, entry) ->
+                  (int)
+                      Math.min(
+                          Integer.MAX_VALUE,
+                          (long) entry.weight * HEAP_BYTES_PER_PERSISTED_UNIT))
+          .<UUID, Entry>removalListener(
+              notification -> {
+                if (notification.getCause() == RemovalCause.SIZE) {
+                  CACHE_EVICTIONS.inc();
+                }
+              })
+          .build();
+
+  // Bumped on every node state write of the universe.
+  private static final Map<UUID, AtomicLong> NODE_STATE_GENERATIONS = new ConcurrentHashMap<>();
+
+  private static class Entry {
+    private final int version;
+    private final long nodeStateGeneration;
+    private final int weight;
+    private final UniverseDefinitionTaskParams details;
+
+    private Entry(
+        int version, long nodeStateGeneration, int weight, UniverseDefinitionTaskParams details) {
+      this.version = version;
+      this.nodeStateGeneration = nodeStateGeneration;
+      this.weight = weight;
+      this.details = details;
+    }
+  }
+
+  private UniverseDetailsCache() {}
+
+  /**
+   * Get the details of the universe version, calling the parser only if they are not cached or the
+   * node states changed since they were parsed. The parser must overlay the node states. The
+   * weight is the size of the persisted form that the parser reads, from which the heap size of the
+   * parsed details is estimated.
+   */
+  public static UniverseDefinitionTaskParams get(
+      UUID universeUUID,
+      int version,
+      int weight,
+      Supplier<UniverseDefinitionTaskParams> parser) {
+    // Read before parsing, so that a node state write made while parsing leaves the entry outdated.
+    long generation = getNodeStateGeneration(universeUUID).get();
+    Entry entry = CACHE.getIfPresent(universeUUID);
+    if (entry != null && entry.version == version && entry.nodeStateGeneration == generation) {
+      CACHE_REQUESTS.labels("hit").inc();
+      return entry.details;
+    }
+    CACHE_REQUESTS.labels("miss").inc();
+    UniverseDefinitionTaskParams details = parser.get();
+    // Do not let a slow reader of an older version or node states replace a newer entry.
+    CACHE
+        .asMap()
+        .merge(
+            universeUUID,
+            new Entry(version, generation, weight, details),
+            (oldEntry, newEntry) -> isNewer(oldEntry, newEntry) ? oldEntry : newEntry);
+    return details;
+  }
+
+  private static boolean isNewer(Entry entry, Entry other) {
+    return entry.version > other.version
+        || (entry.version == other.version
+            && entry.nodeStateGeneration > other.nodeStateGeneration);
+  }
+
+  private static AtomicLong getNodeStateGeneration(UUID universeUUID) {
+    return NODE_STATE_GENERATIONS.computeIfAbsent(universeUUID, k -> new AtomicLong());
+  }
+
+  public static void invalidate(UUID universeUUID) {
+    CACHE.invalidate(universeUUID);
+  }
+
+  /** Drop the details of the universe after its node states were written. */
+  public static void invalidateNodeStates(UUID universeUUID) {
+    getNodeStateGeneration(universeUUID).incrementAndGet();
+    CACHE.invalidate(universeUUID);
+  }
+
+  /** Drop everything kept for the deleted universe. */
+  public static void remove(UUID universeUUID) {
+    CACHE.invalidate(universeUUID);
+    NODE_STATE_GENERATIONS.remove(universeUUID);
+  }
+
+  @VisibleForTesting
+  static void invalidateAll() {
+    CACHE.invalidateAll();
+    NODE_STATE_GENERATIONS.clear();
+  }
+}
@@ -0,0 +1,54 @@
+package models;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import java.io.IOException;
+import play.libs.Json;
+
+/**
+ * Encodes and decodes the persisted forms of the universe details: the legacy JSON text, the jsonb
+ * column used for field extraction in SQL, and the Smile binary copy used by the Java side. Smile
+ * shares repeated property names and short values, so it is smaller and faster to parse than the
+ * JSON text.
+ */
+public final class UniverseDetailsCodec {
+
+  private static final ObjectMapper SMILE_MAPPER =
+      Json.mapper()
+          .copyWith(
+              SmileFactory.builder()
+                  .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                  .build());
+
+  private UniverseDetailsCodec() {}
+
+  public static JsonNode toTree(UniverseDefinitionTaskParams details) {
+    return Json.toJson(details);
+  }
+
+  public static byte[] toSmile(JsonNode tree) {
+    try {
+      return SMILE_MAPPER.writeValueAsBytes(tree);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to encode universe details", e);
+    }
+  }
+
+  public static UniverseDefinitionTaskParams fromSmile(byte[] smile) {
+    try {
+      return SMILE_MAPPER.readValue(smile, UniverseDefinitionTaskParams.class);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to decode universe details", e);
+    }
+  }
+
+  public static UniverseDefinitionTaskParams fromJson(String json) {
+    try {
+      return Json.mapper().readValue(json, UniverseDefinitionTaskParams.class);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to parse universe details", e);
+    }
+  }
+}
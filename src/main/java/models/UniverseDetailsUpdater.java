@@ -0,0 +1,249 @@
+package models;
+
+import static play.mvc.Http.Status.BAD_REQUEST;
+import static play.mvc.Http.Status.INTERNAL_SERVER_ERROR;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.ebean.DB;
+import io.ebean.Transaction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import play.libs.Json;
+
+/**
+ * Optimistic concurrency updater for the universe details. A mutation is applied to a freshly
+ * parsed copy of the details, which is written back with a compare-and-set on the universe version.
+ * On a version conflict the details are reloaded and the mutations are applied again after a
+ * randomized backoff, so mutations must only depend on the details they are given.
+ *
+ * <p>Mutations submitted concurrently for the same universe are combined: the first caller writes
+ * every mutation queued at that time in one update, while the others wait for their result. This
+ * lets parallel subtasks, e.g. node state changes while provisioning many nodes, share a single row
+ * write instead of serializing on it. The universe returned by the writing caller is the one it
+ * wrote, and every other caller of the batch loads its own, so that no two callers share a mutable
+ * universe.
+ */
+@Slf4j
+public final class UniverseDetailsUpdater {
+
+  /** A change to the universe details. It may be applied more than once on conflicts. */
+  @FunctionalInterface
+  public interface Mutation {
+    void apply(UniverseDefinitionTaskParams details);
+  }
+
+  private static final int MAX_ATTEMPTS = 10;
+
+  private static final long BASE_BACKOFF_MS = 10;
+
+  private static final long MAX_BACKOFF_MS = 1000;
+
+  // Maximum number of mutations written in one update.
+  private static final int MAX_BATCH_SIZE = 100;
+
+  // How long a waiting caller sleeps before checking if it must write its own mutation.
+  private static final long WAIT_INTERVAL_MS = 50;
+
+  private static final String CAS_UPDATE =
+      "update universe set universe_details = cast(:details as jsonb),"
+          + " universe_details_smile = :smile, universe_details_json = null,"
+          + " version = version + 1"
+          + " where universe_uuid = :universeUUID and version = :version";
+
+  private static final Map<UUID, UpdateQueue> QUEUES = new ConcurrentHashMap<>();
+
+  private static class UpdateQueue {
+    private final Queue<PendingMutation> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writing = new AtomicBoolean();
+  }
+
+  private static class PendingMutation {
+    private final Mutation mutation;
+    private final CompletableFuture<Universe> result = new CompletableFuture<>();
+    private final Thread caller = Thread.currentThread();
+    // Set by the writer before completing the result for a mutation it wrote for another caller.
+    private volatile boolean writtenByOther;
+
+    private PendingMutation(Mutation mutation) {
+      this.mutation = mutation;
+    }
+  }
+
+  private UniverseDetailsUpdater() {}
+
+  /**
+   * Apply the mutation to the universe details and persist them.
+   *
+   * @return the universe with the details and version that were written, or a later version if
+   *     the mutation was written by another caller.
+   */
+  public static Universe update(UUID universeUUID, Mutation mutation) {
+    UpdateQueue queue = QUEUES.computeIfAbsent(universeUUID, k -> new UpdateQueue());
+    PendingMutation pendingMutation = new PendingMutation(mutation);
+    queue.pending.add(pendingMutation);
+    while (!pendingMutation.result.isDone()) {
+      if (queue.writing.compareAndSet(false, true)) {
+        // Recheck after releasing so that a mutation queued while writing is not left behind.
+        do {
+          try {
+            writeBatches(universeUUID, queue);
+          } finally {
+            queue.writing.set(false);
+          }
+        } while (!queue.pending.isEmpty() && queue.writing.compareAndSet(false, true));
+        // A caller that got the queue just before it is removed still writes its own mutation, at
+        // worst in a separate batch from callers using a new queue.
+        QUEUES.computeIfPresent(
+            universeUUID, (k, q) -> q.pending.isEmpty() && !q.writing.get() ? null : q);
+      } else {
+        try {
+          pendingMutation.result.get(WAIT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+          // Checked again by the loop.
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new CompletionException(e);
+        }
+      }
+    }
+    try {
+      Universe universe = pendingMutation.result.join();
+      if (!pendingMutation.writtenByOther) {
+        return universe;
+      }
+      return Universe.maybeGet(universeUUID)
+          .orElseThrow(
+              () ->
+                  new PlatformServiceException(
+                      BAD_REQUEST, "Cannot find universe " + universeUUID));
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private static void writeBatches(UUID universeUUID, UpdateQueue queue) {
+    while (!queue.pending.isEmpty()) {
+      List<PendingMutation> batch = new ArrayList<>();
+      PendingMutation next;
+      while (batch.size() < MAX_BATCH_SIZE && (next = queue.pending.poll()) != null) {
+        batch.add(next);
+      }
+      try {
+        writeBatch(universeUUID, batch);
+      } catch (RuntimeException e) {
+        batch.forEach(p -> p.result.completeExceptionally(e));
+      }
+    }
+  }
+
+  private static void writeBatch(UUID universeUUID, List<PendingMutation> batch) {
+    for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+      Universe universe =
+          Universe.maybeGet(universeUUID)
+              .orElseThrow(
+                  () ->
+                      new PlatformServiceException(
+                          BAD_REQUEST, "Cannot find universe " + universeUUID));
+      Map<String, UniverseNodeState> nodeStates = new HashMap<>();
+      UniverseDefinitionTaskParams details = applyAll(universe, batch, nodeStates);
+      if (batch.isEmpty()) {
+        return;
+      }
+      JsonNode tree = UniverseDetailsCodec.toTree(details);
+      String jsonb = Json.stringify(tree);
+      byte[] smile = UniverseDetailsCodec.toSmile(tree);
+      boolean updated;
+      try (Transaction transaction = DB.beginTransaction()) {
+        updated =
+            DB.sqlUpdate(CAS_UPDATE)
+                    .setParameter("details", jsonb)
+                    .setParameter("smile", smile)
+                    .setParameter("universeUUID", universeUUID)
+                    .setParameter("version", universe.getVersion())
+                    .execute()
+                == 1;
+        if (updated) {
+          // Only the nodes changed by the mutations, so concurrent node transitions are kept.
+          UniverseNodeState.syncChanges(universeUUID, nodeStates, details);
+          transaction.commit();
+        }
+      }
+      if (updated) {
+        UniverseDetailsCache.invalidate(universeUUID);
+        universe.setPersistedDetails(details, jsonb, smile);
+        universe.setVersion(universe.getVersion() + 1);
+        log.debug(
+            "Wrote {} mutations to universe {} at version {}",
+            batch.size(),
+            universeUUID,
+            universe.getVersion());
+        for (PendingMutation pendingMutation : batch) {
+          pendingMutation.writtenByOther = pendingMutation.caller != Thread.currentThread();
+          pendingMutation.result.complete(universe);
+        }
+        return;
+      }
+      long backoffMs =
+          Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempt, 16))
+              + ThreadLocalRandom.current().nextLong(BASE_BACKOFF_MS);
+      log.debug(
+          "Version conflict updating universe {} (attempt {}), retrying in {}ms",
+          universeUUID,
+          attempt,
+          backoffMs);
+      try {
+        Thread.sleep(backoffMs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CompletionException(e);
+      }
+    }
+    throw new PlatformServiceException(
+        INTERNAL_SERVER_ERROR,
+        String.format(
+            "Failed to update universe %s after %d version conflicts", universeUUID, MAX_ATTEMPTS));
+  }
+
+  // Apply the mutations to a private copy of the details. A mutation that fails is completed with
+  // its error and removed from the batch, and the rest are applied again to a fresh copy. The node
+  // states of the copy before the mutations are captured in nodeStates.
+  private static UniverseDefinitionTaskParams applyAll(
+      Universe universe, List<PendingMutation> batch, Map<String, UniverseNodeState> nodeStates) {
+    while (true) {
+      UniverseDefinitionTaskParams details = universe.copyUniverseDetails();
+      nodeStates.clear();
+      nodeStates.putAll(UniverseNodeState.snapshot(details));
+      PendingMutation failed = null;
+      for (PendingMutation pendingMutation : batch) {
+        try {
+          pendingMutation.mutation.apply(details);
+        } catch (RuntimeException e) {
+          pendingMutation.result.completeExceptionally(e);
+          failed = pendingMutation;
+          break;
+        }
+      }
+      if (failed == null) {
+        return details;
+      }
+      batch.remove(failed);
+    }
+  }
+}
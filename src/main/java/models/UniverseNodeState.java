@@ -0,0 +1,234 @@
+package models;
+
+import io.ebean.DB;
+import io.ebean.Finder;
+import io.ebean.Model;
+import io.ebean.SqlUpdate;
+import io.ebean.Transaction;
+import jakarta.persistence.EmbeddedId;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import models.NodeDetails.MasterState;
+import models.NodeDetails.NodeState;
+
+/**
+ * Volatile fields of a universe node, stored outside of the universe details so that a node state
+ * transition is a single row write. A non-null field here is the source of truth for that node and
+ * is merged into the universe details when they are read. A null field leaves the value from the
+ * universe details in place, so clearing the master state is recorded as {@link MasterState#None}.
+ *
+ * <p>Every write drops the details of the universe with the node states overlaid from the {@link
+ * UniverseDetailsCache}, so that the rows are only read again after they changed.
+ */
+@Entity
+@Data
+@EqualsAndHashCode(callSuper = false)
+public class UniverseNodeState extends Model {
+
+  private static final String UPSERT =
+      "insert into universe_node_state (universe_uuid, node_name, state, master_state,"
+          + " last_volume_update_time, update_time)"
+          + " values (:universeUUID, :nodeName, :state, :masterState, :lastVolumeUpdateTime, now())"
+          + " on conflict (universe_uuid, node_name) do update set"
+          + " state = coalesce(excluded.state, universe_node_state.state),"
+          + " master_state = coalesce(excluded.master_state, universe_node_state.master_state),"
+          + " last_volume_update_time = coalesce(excluded.last_volume_update_time,"
+          + " universe_node_state.last_volume_update_time),"
+          + " update_time = now()";
+
+  @EmbeddedId private UniverseNodeStateKey key;
+
+  @Enumerated(EnumType.STRING)
+  private NodeState state;
+
+  @Enumerated(EnumType.STRING)
+  private MasterState masterState;
+
+  private Date lastVolumeUpdateTime;
+
+  private Date updateTime;
+
+  public static final Finder<UniverseNodeStateKey, UniverseNodeState> find =
+      new Finder<UniverseNodeStateKey, UniverseNodeState>(UniverseNodeState.class) {};
+
+  public static List<UniverseNodeState> getAll(UUID universeUUID) {
+    return find.query().where().eq("key.universeUUID", universeUUID).findList();
+  }
+
+  public static void setState(UUID universeUUID, String nodeName, NodeState state) {
+    upsert(universeUUID, nodeName, state, null, null);
+  }
+
+  public static void setMasterState(UUID universeUUID, String nodeName, MasterState masterState) {
+    upsert(
+        universeUUID,
+        nodeName,
+        null,
+        masterState == null ? MasterState.None : masterState,
+        null);
+  }
+
+  public static void setLastVolumeUpdateTime(UUID universeUUID, String nodeName, Date time) {
+    upsert(universeUUID, nodeName, null, null, time);
+  }
+
+  /** Record all the volatile fields of the node. */
+  public static void upsert(UUID universeUUID, NodeDetails node) {
+    bindNode(DB.sqlUpdate(UPSERT), universeUUID, node).execute();
+    UniverseDetailsCache.invalidateNodeStates(universeUUID);
+  }
+
+  private static void upsert(
+      UUID universeUUID,
+      String nodeName,
+      NodeState state,
+      MasterState masterState,
+      Date lastVolumeUpdateTime) {
+    bind(DB.sqlUpdate(UPSERT), universeUUID, nodeName, state, masterState, lastVolumeUpdateTime)
+        .execute();
+    UniverseDetailsCache.invalidateNodeStates(universeUUID);
+  }
+
+  // Record all the volatile fields of the nodes in one JDBC batch.
+  private static void upsertAll(UUID universeUUID, Collection<NodeDetails> nodes) {
+    if (nodes.isEmpty()) {
+      return;
+    }
+    SqlUpdate upsert = DB.sqlUpdate(UPSERT);
+    for (NodeDetails node : nodes) {
+      bindNode(upsert, universeUUID, node).addBatch();
+    }
+    upsert.executeBatch();
+    UniverseDetailsCache.invalidateNodeStates(universeUUID);
+  }
+
+  private static SqlUpdate bindNode(SqlUpdate upsert, UUID universeUUID, NodeDetails node) {
+    return bind(
+        upsert,
+        universeUUID,
+        node.nodeName,
+        node.state,
+        node.masterState == null ? MasterState.None : node.masterState,
+        node.lastVolumeUpdateTime);
+  }
+
+  private static SqlUpdate bind(
+      SqlUpdate upsert,
+      UUID universeUUID,
+      String nodeName,
+      NodeState state,
+      MasterState masterState,
+      Date lastVolumeUpdateTime) {
+    return upsert
+        .setParameter("universeUUID", universeUUID)
+        .setParameter("nodeName", nodeName)
+        .setParameter("state", state == null ? null : state.name())
+        .setParameter("masterState", masterState == null ? null : masterState.name())
+        .setParameter("lastVolumeUpdateTime", lastVolumeUpdateTime);
+  }
+
+  /** Delete the rows of the universe nodes that are not in the given names. */
+  public static void deleteOthers(UUID universeUUID, Collection<String> nodeNames) {
+    find.query()
+        .where()
+        .eq("key.universeUUID", universeUUID)
+        .notIn("key.nodeName", nodeNames)
+        .delete();
+    UniverseDetailsCache.invalidateNodeStates(universeUUID);
+  }
+
+  /** Make the rows of the universe match the nodes of the details. */
+  public static void syncFrom(UUID universeUUID, UniverseDefinitionTaskParams details) {
+    try (Transaction transaction = DB.beginTransaction()) {
+      transaction.setBatchMode(true);
+      upsertAll(universeUUID, details.nodeDetailsSet);
+      deleteOthers(
+          universeUUID,
+          details.nodeDetailsSet.stream().map(n -> n.nodeName).collect(Collectors.toList()));
+      transaction.commit();
+    }
+  }
+
+  /** Capture the volatile fields of the nodes, to be compared by {@link #syncChanges}. */
+  public static Map<String, UniverseNodeState> snapshot(UniverseDefinitionTaskParams details) {
+    Map<String, UniverseNodeState> snapshot = new HashMap<>();
+    for (NodeDetails node : details.nodeDetailsSet) {
+      UniverseNodeState nodeState = new UniverseNodeState();
+      nodeState.state = node.state;
+      nodeState.masterState = node.masterState;
+      nodeState.lastVolumeUpdateTime = node.lastVolumeUpdateTime;
+      snapshot.put(node.nodeName, nodeState);
+    }
+    return snapshot;
+  }
+
+  /** Record the nodes whose volatile fields differ from the snapshot, and drop removed nodes. */
+  public static void syncChanges(
+      UUID universeUUID,
+      Map<String, UniverseNodeState> snapshot,
+      UniverseDefinitionTaskParams details) {
+    Set<String> nodeNames = new HashSet<>();
+    List<NodeDetails> changed = new ArrayList<>();
+    for (NodeDetails node : details.nodeDetailsSet) {
+      nodeNames.add(node.nodeName);
+      UniverseNodeState before = snapshot.get(node.nodeName);
+      if (before == null
+          || before.state != node.state
+          || before.masterState != node.masterState
+          || !Objects.equals(before.lastVolumeUpdateTime, node.lastVolumeUpdateTime)) {
+        changed.add(node);
+      }
+    }
+    upsertAll(universeUUID, changed);
+    if (!nodeNames.containsAll(snapshot.keySet())) {
+      deleteOthers(universeUUID, nodeNames);
+    }
+  }
+
+  /**
+   * Overlay the recorded volatile fields on the nodes of the details. The details are modified, so
+   * they must not be shared with other readers yet.
+   */
+  public static void mergeInto(UUID universeUUID, UniverseDefinitionTaskParams details) {
+    List<UniverseNodeState> rows = getAll(universeUUID);
+    if (rows.isEmpty()) {
+      return;
+    }
+    NodeDetailsIndex nodeIndex = details.getNodeIndex();
+    boolean stateChanged = false;
+    for (UniverseNodeState row : rows) {
+      NodeDetails node = nodeIndex.getByName(row.key.getNodeName());
+      if (node == null) {
+        continue;
+      }
+      if (row.state != null && row.state != node.state) {
+        node.state = row.state;
+        stateChanged = true;
+      }
+      if (row.masterState != null) {
+        node.masterState = row.masterState;
+      }
+      if (row.lastVolumeUpdateTime != null) {
+        node.lastVolumeUpdateTime = row.lastVolumeUpdateTime;
+      }
+    }
+    if (stateChanged) {
+      // The index groups nodes by state.
+      details.invalidateNodeIndex();
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package models;
+
+import io.ebean.Model;
+import jakarta.persistence.Embeddable;
+import java.util.UUID;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+@Embeddable
+@Data
+@EqualsAndHashCode(callSuper = false)
+public class UniverseNodeStateKey extends Model {
+  private UUID universeUUID;
+  private String nodeName;
+}
@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -79,7 +80,7 @@ public abstract class UniverseTaskBase {
   // If one of such tasks is failed, we should not allow starting most of other tasks,
   // until failed task is retried.
   private static final Set<TaskType> PLACEMENT_MODIFICATION_TASKS =
-          ImmutableSet.of(
+          Sets.immutableEnumSet(
                   TaskType.CreateUniverse,
                   TaskType.CreateKubernetesUniverse,
                   TaskType.ReadOnlyClusterCreate,
@@ -117,7 +118,7 @@ public abstract class UniverseTaskBase {
   // This mapping blocks/allows actions on the UI done by a mapping defined in
   // UNIVERSE_ACTION_TO_FROZEN_TASK_MAP in "./managed/ui/src/redesign/helpers/constants.ts".
   private static final Set<TaskType> SAFE_TO_RUN_IF_UNIVERSE_BROKEN =
-          ImmutableSet.of(
+          Sets.immutableEnumSet(
                   TaskType.CreateBackup,
                   TaskType.BackupUniverse,
                   TaskType.MultiTableBackup,
@@ -150,7 +151,7 @@ public abstract class UniverseTaskBase {
                   TaskType.EnableNodeAgentInUniverse);
 
   private static final Set<TaskType> SKIP_CONSISTENCY_CHECK_TASKS =
-          ImmutableSet.of(
+          Sets.immutableEnumSet(
                   TaskType.CreateBackup,
                   TaskType.CreateBackupSchedule,
                   TaskType.CreateBackupScheduleKubernetes,
@@ -174,7 +175,7 @@ public abstract class UniverseTaskBase {
                   TaskType.ResumeUniverse);
 
   private static final Set<TaskType> RERUNNABLE_PLACEMENT_MODIFICATION_TASKS =
-          ImmutableSet.of(
+          Sets.immutableEnumSet(
                   TaskType.GFlagsUpgrade,
                   TaskType.RestartUniverse,
                   TaskType.VMImageUpgrade,
@@ -186,6 +187,91 @@ public abstract class UniverseTaskBase {
                   TaskType.PauseXClusterUniverses /* TODO Validate this, added for YBM only */,
                   TaskType.ResumeXClusterUniverses /* TODO Validate this, added for YBM only */);
 
+  /** Admission of a requested task on a universe, given the last failed task on it. */
+  public enum Admission {
+    // The task can run.
+    ALLOWED,
+    // The task is the failed placement modification task, which can be run again with new params.
+    RERUN,
+    // The task cannot run until the failed task is retried successfully.
+    RESTRICTED
+  }
+
+  // Admission of every requested task type (column) after a failure of every task type (row),
+  // indexed by ordinal. Built once, so an admission check is two array lookups.
+  private static final Admission[][] ADMISSION_MATRIX = buildAdmissionMatrix();
+
+  // Allowed tasks after a failure of each placement modification task type.
+  private static final Map<TaskType, AllowedTasks> ALLOWED_TASKS_ON_FAILURE =
+      buildAllowedTasksOnFailure();
+
+  private static Admission[][] buildAdmissionMatrix() {
+    TaskType[] taskTypes = TaskType.values();
+    Admission[][] matrix = new Admission[taskTypes.length][taskTypes.length];
+    for (TaskType failedTaskType : taskTypes) {
+      Admission[] row = matrix[failedTaskType.ordinal()];
+      for (TaskType taskType : taskTypes) {
+        row[taskType.ordinal()] = computeAdmission(failedTaskType, taskType);
+      }
+    }
+    return matrix;
+  }
+
+  private static Admission computeAdmission(TaskType failedTaskType, TaskType taskType) {
+    if (!PLACEMENT_MODIFICATION_TASKS.contains(failedTaskType)
+        || SAFE_TO_RUN_IF_UNIVERSE_BROKEN.contains(taskType)) {
+      return Admission.ALLOWED;
+    }
+    if (taskType == failedTaskType && RERUNNABLE_PLACEMENT_MODIFICATION_TASKS.contains(taskType)) {
+      return Admission.RERUN;
+    }
+    return Admission.RESTRICTED;
+  }
+
+  private static Map<TaskType, AllowedTasks> buildAllowedTasksOnFailure() {
+    Map<TaskType, AllowedTasks> allowedTasks = new EnumMap<>(TaskType.class);
+    for (TaskType failedTaskType : PLACEMENT_MODIFICATION_TASKS) {
+      allowedTasks.put(
+          failedTaskType,
+          AllowedTasks.builder()
+              .restricted(true)
+              .rerun(RERUNNABLE_PLACEMENT_MODIFICATION_TASKS.contains(failedTaskType))
+              .lockedTaskType(failedTaskType)
+              .taskTypes(SAFE_TO_RUN_IF_UNIVERSE_BROKEN)
+              .build());
+    }
+    return Collections.unmodifiableMap(allowedTasks);
+  }
+
+  /**
+   * Returns the admission of the task on a universe whose last failed task is of the given type.
+   *
+   * @param failedTaskType the type of the last failed task, or null if there is none.
+   */
+  public static Admission getAdmission(@Nullable TaskType failedTaskType, TaskType taskType) {
+    if (failedTaskType == null) {
+      return Admission.ALLOWED;
+    }
+    return ADMISSION_MATRIX[failedTaskType.ordinal()][taskType.ordinal()];
+  }
+
+  /** Returns the tasks allowed after a failure of the task type. */
+  public static AllowedTasks getAllowedTasksOnFailure(TaskType failedTaskType) {
+    AllowedTasks allowedTasks = ALLOWED_TASKS_ON_FAILURE.get(failedTaskType);
+    return allowedTasks != null ? allowedTasks : AllowedTasks.builder().build();
+  }
+
+  public static boolean isPlacementModificationTask(TaskType taskType) {
+    return PLACEMENT_MODIFICATION_TASKS.contains(taskType);
+  }
+
+  public static boolean isSafeToRunIfUniverseBroken(TaskType taskType) {
+    return SAFE_TO_RUN_IF_UNIVERSE_BROKEN.contains(taskType);
+  }
+
+  public static boolean isRerunnablePlacementModificationTask(TaskType taskType) {
+    return RERUNNABLE_PLACEMENT_MODIFICATION_TASKS.contains(taskType);
+  }
 
   protected Set<UUID> lockedXClusterUniversesUuidSet = null;
 
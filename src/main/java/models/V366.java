@@ -0,0 +1,43 @@
+package models;
+
+import io.ebean.Finder;
+import io.ebean.Model;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import java.util.List;
+import java.util.UUID;
+import lombok.Getter;
+import lombok.Setter;
+
+/** Snapshot View of ORM entities at the time migration V366 was added. */
+public class V366 {
+
+  @Entity
+  @Table(name = "universe")
+  @Getter
+  @Setter
+  public static class Universe extends Model {
+
+    @Id private UUID universeUUID;
+
+    @Column(columnDefinition = "TEXT")
+    private String universeDetailsJson;
+
+    @Column(columnDefinition = "bytea")
+    private byte[] universeDetailsSmile;
+
+    public static final Finder<UUID, Universe> find = new Finder<UUID, Universe>(Universe.class) {};
+
+    public static List<Universe> getWithoutSmile(int limit) {
+      return find.query()
+          .select("universeUUID, universeDetailsJson")
+          .where()
+          .isNull("universe_details_smile")
+          .isNotNull("universe_details_json")
+          .setMaxRows(limit)
+          .findList();
+    }
+  }
+}
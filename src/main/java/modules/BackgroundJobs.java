@@ -0,0 +1,40 @@
+package modules;
+
+import java.util.concurrent.CompletableFuture;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+import models.AlertNotificationDispatcher;
+import models.AlertStateStore;
+import models.InFlightTaskRegistry;
+import models.TaskExecutor;
+import models.TaskHistoryRetention;
+import play.inject.ApplicationLifecycle;
+
+/** Starts the background jobs when the application starts, and stops them when it stops. */
+@Singleton
+@Slf4j
+public class BackgroundJobs {
+
+  @Inject
+  public BackgroundJobs(
+      InFlightTaskRegistry inFlightTaskRegistry,
+      TaskExecutor taskExecutor,
+      AlertStateStore alertStateStore,
+      TaskHistoryRetention taskHistoryRetention,
+      AlertNotificationDispatcher alertNotificationDispatcher,
+      ApplicationLifecycle lifecycle) {
+    // Before any task is submitted, so the tasks left by the previous process are dropped.
+    inFlightTaskRegistry.rebuild(taskExecutor::isTaskRunning);
+    alertStateStore.rebuild();
+    taskHistoryRetention.start();
+    alertNotificationDispatcher.start();
+    lifecycle.addStopHook(
+        () -> {
+          taskHistoryRetention.shutdown();
+          alertNotificationDispatcher.shutdown();
+          return CompletableFuture.completedFuture(null);
+        });
+    log.info("Started the background jobs");
+  }
+}
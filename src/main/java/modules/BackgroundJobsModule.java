@@ -0,0 +1,19 @@
+package modules;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.multibindings.OptionalBinder;
+import models.AlertChannelSender;
+
+/**
+ * Starts the background jobs of the platform along with the application. The alert channel
+ * integrations bind their {@link AlertChannelSender} with {@code
+ * OptionalBinder.newOptionalBinder(binder(), AlertChannelSender.class).setBinding()}.
+ */
+public class BackgroundJobsModule extends AbstractModule {
+
+  @Override
+  protected void configure() {
+    OptionalBinder.newOptionalBinder(binder(), AlertChannelSender.class);
+    bind(BackgroundJobs.class).asEagerSingleton();
+  }
+}
@@ -0,0 +1,8 @@
+-- Universe details as jsonb for field extraction in SQL and as Smile for the Java side.
+-- The Smile copy is filled in by the V366 java migration.
+ALTER TABLE universe ADD COLUMN IF NOT EXISTS universe_details jsonb;
+ALTER TABLE universe ADD COLUMN IF NOT EXISTS universe_details_smile bytea;
+ALTER TABLE universe ALTER COLUMN universe_details_json DROP NOT NULL;
+
+UPDATE universe SET universe_details = universe_details_json::jsonb
+  WHERE universe_details IS NULL AND universe_details_json IS NOT NULL;
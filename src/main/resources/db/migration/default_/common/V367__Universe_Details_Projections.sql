@@ -0,0 +1,19 @@
+-- Hot universe details fields projected from universe_details so that they can be filtered on
+-- with an index instead of extracting them from the JSON of every row.
+ALTER TABLE universe ADD COLUMN IF NOT EXISTS update_in_progress boolean
+  GENERATED ALWAYS AS (coalesce((universe_details->>'updateInProgress')::boolean, false)) STORED;
+ALTER TABLE universe ADD COLUMN IF NOT EXISTS universe_paused boolean
+  GENERATED ALWAYS AS (coalesce((universe_details->>'universePaused')::boolean, false)) STORED;
+ALTER TABLE universe ADD COLUMN IF NOT EXISTS software_upgrade_state varchar(32)
+  GENERATED ALWAYS AS (universe_details->>'softwareUpgradeState') STORED;
+ALTER TABLE universe ADD COLUMN IF NOT EXISTS placement_modification_task_uuid uuid
+  GENERATED ALWAYS AS ((universe_details->>'placementModificationTaskUuid')::uuid) STORED;
+
+CREATE INDEX IF NOT EXISTS ix_universe_customer_update_in_progress
+  ON universe (customer_id) WHERE update_in_progress;
+CREATE INDEX IF NOT EXISTS ix_universe_customer_paused
+  ON universe (customer_id) WHERE universe_paused;
+CREATE INDEX IF NOT EXISTS ix_universe_customer_software_upgrade_state
+  ON universe (customer_id, software_upgrade_state);
+CREATE INDEX IF NOT EXISTS ix_universe_customer_placement_modification_task
+  ON universe (customer_id) WHERE placement_modification_task_uuid IS NOT NULL;
@@ -0,0 +1,13 @@
+-- Volatile node fields kept out of universe_details so that a node state transition is a single
+-- row write instead of a rewrite of the whole universe details.
+CREATE TABLE IF NOT EXISTS universe_node_state (
+  universe_uuid             uuid NOT NULL,
+  node_name                 varchar(255) NOT NULL,
+  state                     varchar(64),
+  master_state              varchar(32),
+  last_volume_update_time   timestamp,
+  update_time               timestamp NOT NULL DEFAULT now(),
+  CONSTRAINT pk_universe_node_state PRIMARY KEY (universe_uuid, node_name),
+  CONSTRAINT fk_universe_node_state_universe FOREIGN KEY (universe_uuid)
+    REFERENCES universe (universe_uuid) ON DELETE CASCADE
+);
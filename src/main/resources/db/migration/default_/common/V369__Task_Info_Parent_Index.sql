@@ -0,0 +1,2 @@
+-- Lookup of the subtasks of a task by the recursive task tree query.
+CREATE INDEX IF NOT EXISTS ix_task_info_parent_uuid_position ON task_info (parent_uuid, position);
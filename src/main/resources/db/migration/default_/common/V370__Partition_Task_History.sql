@@ -0,0 +1,52 @@
+-- Monthly range partitioning of the task history tables on create_time, so that the retention job
+-- can drop a whole month at once instead of deleting the expired rows one by one.
+
+-- Creates the monthly partitions of the table covering from_month to to_month, both included.
+CREATE OR REPLACE FUNCTION create_task_history_partitions(
+  parent text, from_month date, to_month date) RETURNS void AS $$
+DECLARE
+  month_start date;
+BEGIN
+  FOR month_start IN
+    SELECT generate_series(date_trunc('month', from_month), date_trunc('month', to_month),
+      interval '1 month')::date
+  LOOP
+    EXECUTE format(
+      'CREATE TABLE IF NOT EXISTS %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+      parent || '_p' || to_char(month_start, 'YYYYMM'), parent, month_start,
+      (month_start + interval '1 month')::date);
+  END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+-- customer_task. The primary key must include the partition key.
+ALTER TABLE customer_task RENAME TO customer_task_unpartitioned;
+ALTER SEQUENCE IF EXISTS customer_task_id_seq OWNED BY NONE;
+CREATE TABLE customer_task
+  (LIKE customer_task_unpartitioned INCLUDING DEFAULTS INCLUDING CONSTRAINTS)
+  PARTITION BY RANGE (create_time);
+SELECT create_task_history_partitions('customer_task',
+  coalesce((SELECT min(create_time) FROM customer_task_unpartitioned), now())::date,
+  (now() + interval '3 months')::date);
+-- Catches rows outside of the created months, until the retention job creates them.
+CREATE TABLE IF NOT EXISTS customer_task_default PARTITION OF customer_task DEFAULT;
+INSERT INTO customer_task SELECT * FROM customer_task_unpartitioned;
+DROP TABLE customer_task_unpartitioned;
+ALTER SEQUENCE IF EXISTS customer_task_id_seq OWNED BY customer_task.id;
+ALTER TABLE customer_task ADD CONSTRAINT pk_customer_task PRIMARY KEY (id, create_time);
+CREATE INDEX IF NOT EXISTS ix_customer_task_customer_uuid ON customer_task (customer_uuid);
+CREATE INDEX IF NOT EXISTS ix_customer_task_task_uuid ON customer_task (task_uuid);
+CREATE INDEX IF NOT EXISTS ix_customer_task_target_uuid ON customer_task (target_uuid);
+
+-- task_info
+ALTER TABLE task_info RENAME TO task_info_unpartitioned;
+CREATE TABLE task_info (LIKE task_info_unpartitioned INCLUDING DEFAULTS INCLUDING CONSTRAINTS)
+  PARTITION BY RANGE (create_time);
+SELECT create_task_history_partitions('task_info',
+  coalesce((SELECT min(create_time) FROM task_info_unpartitioned), now())::date,
+  (now() + interval '3 months')::date);
+CREATE TABLE IF NOT EXISTS task_info_default PARTITION OF task_info DEFAULT;
+INSERT INTO task_info SELECT * FROM task_info_unpartitioned;
+DROP TABLE task_info_unpartitioned;
+ALTER TABLE task_info ADD CONSTRAINT pk_task_info PRIMARY KEY (uuid, create_time);
+CREATE INDEX IF NOT EXISTS ix_task_info_parent_uuid_position ON task_info (parent_uuid, position);
@@ -0,0 +1,16 @@
+-- Indexes for the keyset pages of the customer and target tasks, ordered by (create_time, id).
+-- They replace the single column indexes on customer_uuid and target_uuid.
+CREATE INDEX IF NOT EXISTS ix_customer_task_customer_create_time
+  ON customer_task (customer_uuid, create_time DESC, id DESC);
+CREATE INDEX IF NOT EXISTS ix_customer_task_target_create_time
+  ON customer_task (target_uuid, create_time DESC, id DESC);
+DROP INDEX IF EXISTS ix_customer_task_customer_uuid;
+DROP INDEX IF EXISTS ix_customer_task_target_uuid;
+
+-- Only a handful of tasks are incomplete at any time, so the admission checks read a tiny index.
+CREATE INDEX IF NOT EXISTS ix_customer_task_incomplete_target
+  ON customer_task (target_uuid, type) WHERE completion_time IS NULL;
+
+-- Latest completed task of a target.
+CREATE INDEX IF NOT EXISTS ix_customer_task_completed_target
+  ON customer_task (target_uuid, completion_time DESC) WHERE completion_time IS NOT NULL;
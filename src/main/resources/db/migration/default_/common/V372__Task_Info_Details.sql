@@ -0,0 +1,2 @@
+-- Details of a task run, e.g. the critical path of the subtask groups run as a DAG.
+ALTER TABLE task_info ADD COLUMN IF NOT EXISTS details TEXT;
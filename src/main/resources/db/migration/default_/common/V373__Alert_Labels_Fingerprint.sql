@@ -0,0 +1,8 @@
+-- Fingerprint of the alert label set, set by the alert state store, so that the deduplication of
+-- a firing alert is an equality check on an index rather than a comparison of the labels.
+ALTER TABLE alert ADD COLUMN IF NOT EXISTS labels_fingerprint bigint;
+CREATE INDEX IF NOT EXISTS ix_alert_definition_fingerprint
+  ON alert (definition_uuid, labels_fingerprint) WHERE state <> 'RESOLVED';
+
+-- Inverted index of the alert labels, for the alerts having a label value.
+CREATE INDEX IF NOT EXISTS ix_alert_label_name_value ON alert_label (name, value, alert_uuid);
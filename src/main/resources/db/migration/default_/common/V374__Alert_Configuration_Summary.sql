@@ -0,0 +1,25 @@
+-- Summary columns of the alert configurations, maintained on the alert state transitions and the
+-- configuration and universe changes, so that sorting the configurations by alert count or target
+-- reads the row instead of aggregating the whole alert table.
+ALTER TABLE alert_configuration ADD COLUMN IF NOT EXISTS alert_count integer DEFAULT 0 NOT NULL;
+ALTER TABLE alert_configuration ADD COLUMN IF NOT EXISTS target_name text;
+
+UPDATE alert_configuration ac SET alert_count = (
+  SELECT count(*) FROM alert a
+  WHERE a.configuration_uuid = ac.uuid AND a.state IN ('ACTIVE', 'ACKNOWLEDGED'));
+
+UPDATE alert_configuration ac SET target_name = CASE
+  WHEN (ac.target::jsonb ->> 'all')::boolean THEN 'ALL'
+  ELSE (SELECT min(u.name)
+    FROM json_array_elements_text(ac.target::json->'uuids') AS t(universe_uuid)
+    JOIN universe u ON u.universe_uuid = t.universe_uuid::uuid)
+  END;
+
+CREATE INDEX IF NOT EXISTS ix_alert_configuration_customer_alert_count
+  ON alert_configuration (customer_uuid, alert_count);
+CREATE INDEX IF NOT EXISTS ix_alert_configuration_customer_target_name
+  ON alert_configuration (customer_uuid, target_name);
+
+-- Recount of the alerts of the configurations, run when the alert state store is loaded.
+CREATE INDEX IF NOT EXISTS ix_alert_counted_configuration_uuid
+  ON alert (configuration_uuid) WHERE state IN ('ACTIVE', 'ACKNOWLEDGED');
@@ -0,0 +1,73 @@
+-- Unique task UUIDs and partition pruned lookups for the partitioned task_info table. The primary
+-- key of a partitioned table must include the partition key, so task_info_key keeps the unique
+-- uuid along with the create_time that locates its partition.
+CREATE TABLE IF NOT EXISTS task_info_key (
+  uuid uuid PRIMARY KEY,
+  create_time timestamp NOT NULL
+);
+INSERT INTO task_info_key (uuid, create_time) SELECT uuid, create_time FROM task_info;
+CREATE INDEX IF NOT EXISTS ix_task_info_key_create_time ON task_info_key (create_time);
+
+-- Rows moved between partitions by create_task_history_partitions keep their key.
+CREATE OR REPLACE FUNCTION sync_task_info_key() RETURNS trigger AS $$
+BEGIN
+  IF current_setting('task_history.moving_rows', true) = 'on' THEN
+    RETURN NULL;
+  END IF;
+  IF TG_OP = 'INSERT' THEN
+    -- Fails on a duplicate uuid.
+    INSERT INTO task_info_key (uuid, create_time) VALUES (NEW.uuid, NEW.create_time);
+  ELSIF TG_OP = 'UPDATE' THEN
+    UPDATE task_info_key SET uuid = NEW.uuid, create_time = NEW.create_time
+      WHERE uuid = OLD.uuid;
+  ELSE
+    DELETE FROM task_info_key WHERE uuid = OLD.uuid;
+  END IF;
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trg_sync_task_info_key ON task_info;
+CREATE TRIGGER trg_sync_task_info_key
+  AFTER INSERT OR DELETE OR UPDATE OF uuid, create_time ON task_info
+  FOR EACH ROW EXECUTE FUNCTION sync_task_info_key();
+
+-- Creates the monthly partitions of the table covering from_month to to_month, both included. A
+-- partition cannot be created while the default partition has rows of its month, so the default
+-- partition is detached, its rows of the month are moved to the new partition, and it is attached
+-- again.
+CREATE OR REPLACE FUNCTION create_task_history_partitions(
+  parent text, from_month date, to_month date) RETURNS void AS $$
+DECLARE
+  month_start date;
+  month_end date;
+  partition_name text;
+  default_name text := parent || '_default';
+  has_default boolean;
+BEGIN
+  has_default := to_regclass(default_name) IS NOT NULL;
+  FOR month_start IN
+    SELECT generate_series(date_trunc('month', from_month), date_trunc('month', to_month),
+      interval '1 month')::date
+  LOOP
+    month_end := (month_start + interval '1 month')::date;
+    partition_name := parent || '_p' || to_char(month_start, 'YYYYMM');
+    CONTINUE WHEN to_regclass(partition_name) IS NOT NULL;
+    IF has_default THEN
+      EXECUTE format('ALTER TABLE %I DETACH PARTITION %I', parent, default_name);
+    END IF;
+    EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+      partition_name, parent, month_start, month_end);
+    IF has_default THEN
+      PERFORM set_config('task_history.moving_rows', 'on', true);
+      EXECUTE format(
+        'INSERT INTO %I SELECT * FROM %I WHERE create_time >= %L AND create_time < %L',
+        partition_name, default_name, month_start, month_end);
+      EXECUTE format('DELETE FROM %I WHERE create_time >= %L AND create_time < %L',
+        default_name, month_start, month_end);
+      PERFORM set_config('task_history.moving_rows', 'off', true);
+      EXECUTE format('ALTER TABLE %I ATTACH PARTITION %I DEFAULT', parent, default_name);
+    END IF;
+  END LOOP;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,12 @@
+-- Channels that were already notified of the current state of an alert, while the notification of
+-- that state is still pending on other channels. A later dispatch only sends to the remaining
+-- channels. The rows of an alert are deleted once all its channels were notified.
+CREATE TABLE IF NOT EXISTS alert_channel_notification (
+  alert_uuid uuid NOT NULL,
+  channel_uuid uuid NOT NULL,
+  notified_state varchar(20) NOT NULL,
+  notification_time timestamp NOT NULL,
+  CONSTRAINT pk_alert_channel_notification PRIMARY KEY (alert_uuid, channel_uuid),
+  CONSTRAINT fk_alert_channel_notification_alert FOREIGN KEY (alert_uuid)
+    REFERENCES alert (uuid) ON DELETE CASCADE
+);
@@ -0,0 +1,4 @@
+-- Lookup of the alert configurations targeting a universe, which refreshes their target names on
+-- the universe changes.
+CREATE INDEX IF NOT EXISTS ix_alert_configuration_target_uuids
+  ON alert_configuration USING gin ((target::jsonb -> 'uuids') jsonb_path_ops);
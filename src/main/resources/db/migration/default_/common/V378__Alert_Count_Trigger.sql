@@ -0,0 +1,39 @@
+-- Maintains alert_configuration.alert_count, the number of the ACTIVE and ACKNOWLEDGED alerts of
+-- each configuration, on every write of the alert table, whether made through the model or the
+-- alert state store.
+CREATE OR REPLACE FUNCTION count_configuration_alerts() RETURNS trigger AS $$
+DECLARE
+  was_counted boolean := false;
+  is_counted boolean := false;
+BEGIN
+  IF TG_OP <> 'INSERT' THEN
+    was_counted := OLD.state IN ('ACTIVE', 'ACKNOWLEDGED');
+  END IF;
+  IF TG_OP <> 'DELETE' THEN
+    is_counted := NEW.state IN ('ACTIVE', 'ACKNOWLEDGED');
+  END IF;
+  IF TG_OP = 'UPDATE' AND was_counted = is_counted
+      AND OLD.configuration_uuid IS NOT DISTINCT FROM NEW.configuration_uuid THEN
+    RETURN NULL;
+  END IF;
+  IF was_counted THEN
+    UPDATE alert_configuration SET alert_count = greatest(alert_count - 1, 0)
+      WHERE uuid = OLD.configuration_uuid;
+  END IF;
+  IF is_counted THEN
+    UPDATE alert_configuration SET alert_count = alert_count + 1
+      WHERE uuid = NEW.configuration_uuid;
+  END IF;
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trg_count_configuration_alerts ON alert;
+CREATE TRIGGER trg_count_configuration_alerts
+  AFTER INSERT OR DELETE OR UPDATE OF state, configuration_uuid ON alert
+  FOR EACH ROW EXECUTE FUNCTION count_configuration_alerts();
+
+-- Counts written before the trigger existed.
+UPDATE alert_configuration ac SET alert_count = (
+  SELECT count(*) FROM alert a
+  WHERE a.configuration_uuid = ac.uuid AND a.state IN ('ACTIVE', 'ACKNOWLEDGED'));
@@ -0,0 +1,84 @@
+package models;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+/**
+ * Fingerprints 1M alerts with the label cardinality of a large deployment: 1000 universes of 20
+ * nodes each and 50 alert definitions, so that every alert has a distinct label set. Checks that
+ * the fingerprints do not collide and do not depend on the label order, and logs the throughput.
+ */
+@Slf4j
+public class AlertLabelsFingerprintBenchmarkTest {
+
+  private static final int UNIVERSES = 1000;
+  private static final int NODES_PER_UNIVERSE = 20;
+  private static final int DEFINITIONS = 50;
+  private static final int ALERTS = UNIVERSES * NODES_PER_UNIVERSE * DEFINITIONS;
+
+  private static final UUID CUSTOMER_UUID = new UUID(1, 1);
+
+  private static List<AlertLabel> labels(int alert) {
+    int universe = alert % UNIVERSES;
+    int node = (alert / UNIVERSES) % NODES_PER_UNIVERSE;
+    int definition = alert / (UNIVERSES * NODES_PER_UNIVERSE);
+    List<AlertLabel> labels = new ArrayList<>(9);
+    labels.add(new AlertLabel("customer_uuid", CUSTOMER_UUID.toString()));
+    labels.add(new AlertLabel("source_type", "universe"));
+    labels.add(new AlertLabel("source_uuid", new UUID(2, universe).toString()));
+    labels.add(new AlertLabel("source_name", "universe-" + universe));
+    labels.add(new AlertLabel("definition_uuid", new UUID(3, definition).toString()));
+    labels.add(new AlertLabel("definition_name", "definition-" + definition));
+    labels.add(new AlertLabel("severity", definition % 2 == 0 ? "SEVERE" : "WARNING"));
+    labels.add(new AlertLabel("node_name", "yb-universe-" + universe + "-n" + node));
+    labels.add(new AlertLabel("node_address", "10.0." + universe % 256 + "." + node));
+    return labels;
+  }
+
+  @Test
+  public void testFingerprintsOfOneMillionAlerts() {
+    long[] fingerprints = new long[ALERTS];
+    long start = System.nanoTime();
+    for (int alert = 0; alert < ALERTS; alert++) {
+      fingerprints[alert] = Alert.computeLabelsFingerprint(labels(alert));
+    }
+    long elapsedNanos = System.nanoTime() - start;
+    log.info(
+        "Fingerprinted {} alerts in {} ms, {} ns per alert",
+        ALERTS,
+        TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+        elapsedNanos / ALERTS);
+
+    long[] sorted = fingerprints.clone();
+    Arrays.sort(sorted);
+    for (int i = 1; i < sorted.length; i++) {
+      assertNotEquals("Fingerprint collision", sorted[i - 1], sorted[i]);
+    }
+
+    Random random = new Random(42);
+    for (int i = 0; i < 1000; i++) {
+      int alert = random.nextInt(ALERTS);
+      List<AlertLabel> shuffled = labels(alert);
+      Collections.shuffle(shuffled, random);
+      assertEquals(fingerprints[alert], Alert.computeLabelsFingerprint(shuffled));
+    }
+  }
+
+  @Test
+  public void testLabelValueSeparation() {
+    // The boundary between the name and the value is part of the fingerprint.
+    assertNotEquals(
+        Alert.computeLabelsFingerprint(Arrays.asList(new AlertLabel("ab", "c"))),
+        Alert.computeLabelsFingerprint(Arrays.asList(new AlertLabel("a", "bc"))));
+  }
+}
@@ -0,0 +1,159 @@
+package models;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.Set;
+import models.CustomerTask.TaskType;
+import models.UniverseTaskBase.Admission;
+import models.UniverseTaskBase.AllowedTasks;
+import org.junit.Test;
+
+/**
+ * Checks the precomputed admission matrix against the admissions of the task type sets it
+ * replaced. The expectations are written out here, so a change of the sets or the matrix that
+ * changes an admission fails the test.
+ */
+public class UniverseTaskBaseAdmissionTest {
+
+  // The placement modification task types that could be rerun with new params after a failure.
+  private static final Set<TaskType> RERUNNABLE =
+      ImmutableSet.of(
+          TaskType.GFlagsUpgrade,
+          TaskType.RestartUniverse,
+          TaskType.VMImageUpgrade,
+          TaskType.GFlagsKubernetesUpgrade,
+          TaskType.KubernetesOverridesUpgrade,
+          TaskType.EditKubernetesUniverse,
+          TaskType.PauseUniverse,
+          TaskType.ResumeUniverse,
+          TaskType.PauseXClusterUniverses,
+          TaskType.ResumeXClusterUniverses);
+
+  // The placement modification task types that could not be rerun after a failure.
+  private static final Set<TaskType> NOT_RERUNNABLE =
+      ImmutableSet.of(
+          TaskType.CreateUniverse,
+          TaskType.CreateKubernetesUniverse,
+          TaskType.ReadOnlyClusterCreate,
+          TaskType.ReadOnlyClusterDelete,
+          TaskType.ResizeNode,
+          TaskType.SoftwareKubernetesUpgrade,
+          TaskType.SoftwareKubernetesUpgradeYB,
+          TaskType.RestartUniverseKubernetesUpgrade,
+          TaskType.CertsRotateKubernetesUpgrade,
+          TaskType.SoftwareUpgrade,
+          TaskType.SoftwareUpgradeYB,
+          TaskType.FinalizeUpgrade,
+          TaskType.FinalizeKubernetesUpgrade,
+          TaskType.RollbackUpgrade,
+          TaskType.RollbackKubernetesUpgrade,
+          TaskType.RebootNodeInUniverse,
+          TaskType.ThirdpartySoftwareUpgrade,
+          TaskType.CertsRotate,
+          TaskType.TlsToggle,
+          TaskType.MasterFailover,
+          TaskType.SyncMasterAddresses,
+          TaskType.DecommissionNode);
+
+  // Number of the task types that could run on a universe with a failed placement modification.
+  private static final int SAFE_TO_RUN_IF_BROKEN_COUNT = 30;
+
+  private static void assertAdmission(Admission expected, TaskType failed, TaskType requested) {
+    assertEquals(
+        String.format("Admission of %s after a failed %s", requested, failed),
+        expected,
+        UniverseTaskBase.getAdmission(failed, requested));
+  }
+
+  @Test
+  public void testAdmissionOfKnownPairs() {
+    // A rerunnable failed task can be rerun, the safe tasks run and the others wait.
+    assertAdmission(Admission.RERUN, TaskType.GFlagsUpgrade, TaskType.GFlagsUpgrade);
+    assertAdmission(Admission.ALLOWED, TaskType.GFlagsUpgrade, TaskType.CreateBackup);
+    assertAdmission(Admission.RESTRICTED, TaskType.GFlagsUpgrade, TaskType.SoftwareUpgrade);
+    assertAdmission(
+        Admission.RERUN, TaskType.EditKubernetesUniverse, TaskType.EditKubernetesUniverse);
+    assertAdmission(Admission.RERUN, TaskType.PauseUniverse, TaskType.PauseUniverse);
+    assertAdmission(Admission.RESTRICTED, TaskType.PauseUniverse, TaskType.ResumeUniverse);
+    assertAdmission(Admission.ALLOWED, TaskType.ResumeUniverse, TaskType.CreateSupportBundle);
+    assertAdmission(Admission.RERUN, TaskType.VMImageUpgrade, TaskType.VMImageUpgrade);
+    assertAdmission(Admission.RESTRICTED, TaskType.VMImageUpgrade, TaskType.GFlagsUpgrade);
+
+    // A non rerunnable failed task only admits the safe tasks.
+    assertAdmission(Admission.RESTRICTED, TaskType.SoftwareUpgrade, TaskType.SoftwareUpgrade);
+    assertAdmission(Admission.ALLOWED, TaskType.SoftwareUpgrade, TaskType.DestroyUniverse);
+    assertAdmission(Admission.RESTRICTED, TaskType.CreateUniverse, TaskType.CreateUniverse);
+    assertAdmission(
+        Admission.RESTRICTED, TaskType.CreateUniverse, TaskType.EditKubernetesUniverse);
+    assertAdmission(Admission.RESTRICTED, TaskType.DecommissionNode, TaskType.DecommissionNode);
+    assertAdmission(Admission.RESTRICTED, TaskType.ResizeNode, TaskType.ResizeNode);
+    assertAdmission(Admission.RESTRICTED, TaskType.RollbackUpgrade, TaskType.FinalizeUpgrade);
+    assertAdmission(
+        Admission.ALLOWED, TaskType.MasterFailover, TaskType.EnableNodeAgentInUniverse);
+    assertAdmission(Admission.ALLOWED, TaskType.TlsToggle, TaskType.ReinstallNodeAgent);
+    assertAdmission(Admission.ALLOWED, TaskType.CertsRotate, TaskType.FailoverDrConfig);
+
+    // A failed task that does not modify the placement restricts nothing.
+    assertAdmission(Admission.ALLOWED, TaskType.CreateBackup, TaskType.SoftwareUpgrade);
+    assertAdmission(Admission.ALLOWED, TaskType.DestroyUniverse, TaskType.GFlagsUpgrade);
+    assertAdmission(Admission.ALLOWED, TaskType.CreateXClusterConfig, TaskType.CreateUniverse);
+  }
+
+  @Test
+  public void testEverythingAllowedWithoutFailedTask() {
+    for (TaskType taskType : TaskType.values()) {
+      assertAdmission(Admission.ALLOWED, null, taskType);
+    }
+  }
+
+  @Test
+  public void testAdmissionCountsAfterPlacementModificationFailure() {
+    for (TaskType failed : TaskType.values()) {
+      boolean rerunnable = RERUNNABLE.contains(failed);
+      boolean placementModification = rerunnable || NOT_RERUNNABLE.contains(failed);
+      int allowed = 0;
+      int rerun = 0;
+      for (TaskType requested : TaskType.values()) {
+        switch (UniverseTaskBase.getAdmission(failed, requested)) {
+          case ALLOWED:
+            allowed++;
+            break;
+          case RERUN:
+            assertEquals(failed, requested);
+            rerun++;
+            break;
+          default:
+            break;
+        }
+      }
+      String message = "Admissions after a failed " + failed;
+      if (!placementModification) {
+        assertEquals(message, TaskType.values().length, allowed);
+        continue;
+      }
+      assertEquals(message, SAFE_TO_RUN_IF_BROKEN_COUNT, allowed);
+      assertEquals(message, rerunnable ? 1 : 0, rerun);
+    }
+  }
+
+  @Test
+  public void testAllowedTasksOnFailure() {
+    AllowedTasks rerunnable = UniverseTaskBase.getAllowedTasksOnFailure(TaskType.GFlagsUpgrade);
+    assertTrue(rerunnable.isRestricted());
+    assertTrue(rerunnable.isRerun());
+    assertEquals(TaskType.GFlagsUpgrade, rerunnable.getLockedTaskType());
+    assertEquals(SAFE_TO_RUN_IF_BROKEN_COUNT, rerunnable.getTaskTypes().size());
+    assertTrue(rerunnable.getTaskTypes().contains(TaskType.CreateBackup));
+
+    AllowedTasks notRerunnable =
+        UniverseTaskBase.getAllowedTasksOnFailure(TaskType.SoftwareUpgrade);
+    assertTrue(notRerunnable.isRestricted());
+    assertFalse(notRerunnable.isRerun());
+    assertEquals(TaskType.SoftwareUpgrade, notRerunnable.getLockedTaskType());
+
+    assertFalse(UniverseTaskBase.getAllowedTasksOnFailure(TaskType.CreateBackup).isRestricted());
+  }
+}